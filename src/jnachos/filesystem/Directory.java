@@ -215,6 +215,18 @@ public class Directory {
 		return -1;
 	}
 
+	/**
+	 * Return the disk sector holding the header of the file in a directory
+	 * entry.
+	 *
+	 * @param pIndex
+	 *            the location in the table of directory entries.
+	 * @return the disk sector number, or -1 if the entry is not in use.
+	 */
+	public int getSector(int pIndex) {
+		return mTable[pIndex].mInUse ? mTable[pIndex].mSector : -1;
+	}
+
 	/**
 	 * Look up file name in directory, and return the disk sector number where
 	 * the file's header is stored. Return -1 if the name isn't in the
@@ -32,6 +32,13 @@ public class FileHeader {
 	/** The maximum size of a file in JNachos */
 	public static final int MaxFileSize = (NumDirect * Disk.SectorSize);
 
+	/**
+	 * Data sector pointer used for a hole, a range of the file that has never
+	 * been written. Sector 0 always holds the free map header, so it can never
+	 * be a data sector.
+	 */
+	public static final int HoleSector = 0;
+
 	/** Number of bytes in the file. */
 	private int mNumBytes;
 
@@ -83,11 +90,44 @@ public class FileHeader {
 		if (pFreeMap.numClear() < mNumSectors) {
 			return false;
 		}
-		mDataSectors = pFreeMap.find(pFileSize);
+		int[] sectors = pFreeMap.find(pFileSize);
+		System.arraycopy(sectors, 0, mDataSectors, 0, sectors.length);
+
+		return true;
+	}
 
+	/**
+	 * Initialize a fresh file header for a newly created sparse file. No data
+	 * blocks are allocated; every data sector starts out as a hole and is only
+	 * backed by disk space once it is written.
+	 *
+	 * @param pFileSize
+	 *            the initial size of the file.
+	 * @return true if successful, false if the file is larger than the header
+	 *         can describe.
+	 */
+	public boolean allocateSparse(int pFileSize) {
+		if (pFileSize > MaxFileSize) {
+			return false;
+		}
+		setNumBytes(pFileSize);
+		for (int i = 0; i < mNumSectors; i++) {
+			mDataSectors[i] = HoleSector;
+		}
 		return true;
 	}
 
+	/**
+	 * Checks whether a data sector of the file is an unallocated hole.
+	 *
+	 * @param pSectorIndex
+	 *            the index of the sector within the file.
+	 * @return true if no disk sector backs that part of the file.
+	 */
+	public boolean isHole(int pSectorIndex) {
+		return mDataSectors[pSectorIndex] == HoleSector;
+	}
+
 	/**
 	 * Modify the bytes
 	 * @param totalBytes
@@ -108,6 +148,11 @@ public class FileHeader {
 
 	public void deallocate(BitMap pFreeMap) {
 		for (int i = 0; i < mNumSectors; i++) {
+			// holes were never allocated
+			if (isHole(i)) {
+				continue;
+			}
+
 			// ought to be marked!
 			assert (pFreeMap.test(mDataSectors[i]));
 			pFreeMap.clear(mDataSectors[i]);
@@ -161,7 +206,7 @@ public class FileHeader {
 	 * @param offset
 	 *            the location within the file of the byte in question
 	 * @return The disk sector which is storing a particular byte within the
-	 *         file.
+	 *         file, or HoleSector if that part of the file is a hole.
 	 */
 	public int byteToSector(int offset) {
 		return (mDataSectors[offset / Disk.SectorSize]);
@@ -26,6 +26,19 @@ public interface FileSystem {
 	 */
 	public boolean create(String pFileName, int pInitialSize);
 
+	/**
+	 * Creates the specified file without allocating any data space. The file
+	 * reads back as zeros until it is written, and only the regions written
+	 * consume disk space.
+	 * 
+	 * @param pFileName
+	 *            The file to create
+	 * @param pInitialSize
+	 *            the initial size of the file
+	 * @return true if successful, false otherwise
+	 */
+	public boolean createSparse(String pFileName, int pInitialSize);
+
 	/**
 	 * 
 	 * @param pFileName
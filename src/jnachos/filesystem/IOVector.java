@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation 
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.filesystem;
+
+/** Describes one segment of a scatter/gather (readv/writev) request. */
+public class IOVector {
+	/** The memory the segment is read into or written from. */
+	public byte[] buffer;
+
+	/** Index in buffer of the first byte of the segment. */
+	public int bufferOffset;
+
+	/** Location of the segment in the file. */
+	public int offset;
+
+	/** Number of bytes in the segment. */
+	public int length;
+
+	/**
+	 * Describes a segment that starts at the beginning of its buffer.
+	 * 
+	 * @param pBuffer
+	 *            the memory to read into or write from
+	 * @param pOffset
+	 *            the location of the segment in the file
+	 * @param pLength
+	 *            the number of bytes in the segment
+	 */
+	public IOVector(byte[] pBuffer, int pOffset, int pLength) {
+		this(pBuffer, 0, pOffset, pLength);
+	}
+
+	/**
+	 * Describes a segment.
+	 * 
+	 * @param pBuffer
+	 *            the memory to read into or write from
+	 * @param pBufferOffset
+	 *            the index in pBuffer of the first byte of the segment
+	 * @param pOffset
+	 *            the location of the segment in the file
+	 * @param pLength
+	 *            the number of bytes in the segment
+	 */
+	public IOVector(byte[] pBuffer, int pBufferOffset, int pOffset, int pLength) {
+		buffer = pBuffer;
+		bufferOffset = pBufferOffset;
+		offset = pOffset;
+		length = pLength;
+	}
+}
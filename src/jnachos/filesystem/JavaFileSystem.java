@@ -46,6 +46,19 @@ public class JavaFileSystem implements FileSystem {
 		return true;
 	}
 
+	/**
+	 * Creates the file specified. The host file system decides how the file
+	 * is laid out, so this is the same as create.
+	 * 
+	 * @param pName
+	 *            the name of the file.
+	 * @param initialSize
+	 *            the initial size of the file.
+	 */
+	public boolean createSparse(String pName, int initialSize) {
+		return create(pName, initialSize);
+	}
+
 	/**
 	 * 
 	 * @param pName
@@ -9,6 +9,10 @@ package jnachos.filesystem;
 
 import jnachos.machine.*;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.List;
+
 /**
  * 
  * @author pjmcswee
@@ -101,13 +105,81 @@ public class JavaOpenFile implements OpenFile {
 		return numWritten;
 	}
 
+	/**
+	 * Reads into a buffer from the specified location.
+	 * 
+	 * @param into
+	 *            the buffer to read into.
+	 * @param position
+	 *            the location in the file to read from.
+	 * @return the number of bytes read, or -1 at the end of the file.
+	 */
+	public int read(ByteBuffer into, int position) {
+		return JavaSys.readAt(mFile, into, position);
+	}
+
+	/**
+	 * Writes a buffer at the specified location.
+	 * 
+	 * @param from
+	 *            the buffer to write from.
+	 * @param position
+	 *            the location in the file to write to.
+	 * @return the number of bytes written.
+	 */
+	public int write(ByteBuffer from, int position) {
+		return JavaSys.writeAt(mFile, from, position);
+	}
+
+	/**
+	 * Reads each segment in turn; the host file system does its own
+	 * scheduling.
+	 * 
+	 * @param vectors
+	 *            the segments to read.
+	 * @return the total number of bytes read.
+	 */
+	public int readv(List<IOVector> vectors) {
+		int total = 0;
+		for (IOVector v : vectors) {
+			int numRead = read(ByteBuffer.wrap(v.buffer, v.bufferOffset, v.length), v.offset);
+			if (numRead > 0) {
+				total += numRead;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Writes each segment in turn.
+	 * 
+	 * @param vectors
+	 *            the segments to write.
+	 * @return the total number of bytes written.
+	 */
+	public int writev(List<IOVector> vectors) {
+		int total = 0;
+		for (IOVector v : vectors) {
+			total += write(ByteBuffer.wrap(v.buffer, v.bufferOffset, v.length), v.offset);
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the host channel of the file.
+	 * 
+	 * @return the channel of the file.
+	 */
+	public SeekableByteChannel getChannel() {
+		return JavaSys.getChannel(mFile);
+	}
+
 	/**
 	 * Gets the length of the file.
 	 * 
 	 * @return the length of the file.
 	 */
 	public int length() {
-		JavaSys.lseek(mFile, 0);
-		return (int) JavaSys.tell(mFile);
+		return (int) JavaSys.length(mFile);
 	}
 }
@@ -9,6 +9,10 @@ package jnachos.filesystem;
 
 import jnachos.machine.*;
 import jnachos.kern.*;
+import jnachos.kern.sync.Lock;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Routines to manage the overall operation of the file system.
@@ -61,6 +65,13 @@ public class NachosFileSystem implements FileSystem {
 	private NachosOpenFile mFreeMapFile;
 	public static BitMap mFreeMap;
 
+	/**
+	 * Held while the directory is read, changed and written back, which
+	 * sleeps on the disk, so that two processes creating or removing files
+	 * at once do not lose each other's entries.
+	 */
+	private Lock mDirectoryLock = new Lock("directory");
+
 
 	/**
 	 * Initialize the file system. If format = true, the disk has nothing on it,
@@ -98,6 +109,7 @@ public class NachosFileSystem implements FileSystem {
 
 			mFreeMap.mark(FreeMapSector);
 			mFreeMap.mark(DirectorySector);
+			SwapSpace.reserve(mFreeMap);
 
 			if (!mapHdr.allocate(mFreeMap, FreeMapFileSize)) {
 				assert (false);
@@ -142,6 +154,57 @@ public class NachosFileSystem implements FileSystem {
 
 		mFreeMap = new BitMap(FreeMapFileSize);
 		mFreeMap.fetchFrom(mFreeMapFile);
+
+		// A disk formatted before the swap partition was set aside may have
+		// files in it; swapping over them would destroy them
+		if (filesInSwap(directory)) {
+			Debug.print('f', "Files occupy the swap partition, swapping is disabled.");
+			SwapSpace.disable();
+		} else {
+			SwapSpace.reserve(mFreeMap);
+		}
+	}
+
+	/**
+	 * Whether any file, including the free map and the directory, has its
+	 * header or data in the swap partition. The headers are only read if the
+	 * free map shows part of the partition in use.
+	 *
+	 * @param pDirectory
+	 *            the directory of the disk.
+	 * @return true if a file owns a sector of the partition.
+	 */
+	private boolean filesInSwap(Directory pDirectory) {
+		boolean marked = false;
+		for (int slot = 0; slot < SwapSpace.NumSlots; slot++) {
+			marked |= mFreeMap.test(SwapSpace.FirstSector + slot);
+		}
+		if (!marked) {
+			return false;
+		}
+
+		List<Integer> headers = new ArrayList<Integer>();
+		headers.add(FreeMapSector);
+		headers.add(DirectorySector);
+		for (int i = 0; i < pDirectory.getmTableSize(); i++) {
+			if (pDirectory.getSector(i) != -1) {
+				headers.add(pDirectory.getSector(i));
+			}
+		}
+
+		FileHeader hdr = new FileHeader();
+		for (int sector : headers) {
+			if (SwapSpace.contains(sector)) {
+				return true;
+			}
+			hdr.fetchFrom(sector);
+			for (int i = 0; i < Math.min(hdr.getmNumSectors(), FileHeader.NumDirect); i++) {
+				if (hdr.mDataSectors[i] != FileHeader.HoleSector && SwapSpace.contains(hdr.mDataSectors[i])) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -170,6 +233,33 @@ public class NachosFileSystem implements FileSystem {
 	 *            the size of file to be created.
 	 */
 	public boolean create(String pName, int pInitialSize) {
+		return create(pName, pInitialSize, false);
+	}
+
+	/**
+	 * Create a file whose data is entirely a hole. Only the file header is
+	 * allocated; data fragments are allocated as they are first written.
+	 * 
+	 * @param pName
+	 *            the name of file to be created.
+	 * @param pInitialSize
+	 *            the size of file to be created.
+	 */
+	public boolean createSparse(String pName, int pInitialSize) {
+		return create(pName, pInitialSize, true);
+	}
+
+	/**
+	 * Does the work for create and createSparse.
+	 * 
+	 * @param pName
+	 *            the name of file to be created.
+	 * @param pInitialSize
+	 *            the size of file to be created.
+	 * @param pSparse
+	 *            whether to leave the data unallocated.
+	 */
+	private boolean create(String pName, int pInitialSize, boolean pSparse) {
 		Directory directory;
 		FileHeader hdr;
 		int sector;
@@ -177,6 +267,7 @@ public class NachosFileSystem implements FileSystem {
 
 		Debug.print('f', "Creating file " + pName + ", size: " + pInitialSize);
 
+		mDirectoryLock.acquire();
 		directory = new Directory(NumDirEntries);
 		directory.fetchFrom(mDirectoryFile);
 
@@ -194,7 +285,7 @@ public class NachosFileSystem implements FileSystem {
 				success = false; // no space in directory
 			} else {
 				hdr = new FileHeader();
-				if (!hdr.allocate(mFreeMap, pInitialSize)) {
+				if (pSparse ? !hdr.allocateSparse(pInitialSize) : !hdr.allocate(mFreeMap, pInitialSize)) {
 					success = false; // no space on disk for data
 				} else {
 					success = true;
@@ -209,6 +300,7 @@ public class NachosFileSystem implements FileSystem {
 			mFreeMap.delete();
 		}
 		directory.delete();
+		mDirectoryLock.release();
 		return success;
 	}
 
@@ -258,12 +350,14 @@ public class NachosFileSystem implements FileSystem {
 		FileHeader fileHdr;
 		int sector;
 
+		mDirectoryLock.acquire();
 		directory = new Directory(NumDirEntries);
 		directory.fetchFrom(mDirectoryFile);
 		sector = directory.find(pName);
 
 		if (sector == -1) {
 			directory.delete();
+			mDirectoryLock.release();
 			return false; // file not found
 		}
 		fileHdr = new FileHeader();
@@ -281,6 +375,7 @@ public class NachosFileSystem implements FileSystem {
 		fileHdr.delete();
 		directory.delete();
 		freeMap.delete();
+		mDirectoryLock.release();
 		return true;
 	}
 
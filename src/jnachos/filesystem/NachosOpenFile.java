@@ -9,6 +9,15 @@ package jnachos.filesystem;
 
 import jnachos.machine.*;
 import jnachos.kern.*;
+import jnachos.kern.sync.ReadWriteLock;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * 
@@ -26,6 +35,18 @@ public class NachosOpenFile implements OpenFile {
 	/** Sector number to store the header sector number */
 	private int mHeaderSectorNum;
 
+	/**
+	 * Readers of the file share this; anything that changes the data or the
+	 * header takes it exclusively.
+	 */
+	private ReadWriteLock mLock;
+
+	/** Whether the header may have changed since it was last written back. */
+	private boolean mHeaderDirty;
+
+	/** What a hole reads back as; never written to. */
+	private static final byte[] EmptySector = new byte[Disk.SectorSize];
+
 	/**
 	 * Open a Nachos file for reading and writing. Bring the file header into
 	 * memory while the file is open.
@@ -38,6 +59,7 @@ public class NachosOpenFile implements OpenFile {
 		mHdr.fetchFrom(sector);
 		mSeekPosition = 0;
 		mHeaderSectorNum = sector;
+		mLock = new ReadWriteLock("file " + sector);
 	}
 
 	/**
@@ -63,7 +85,9 @@ public class NachosOpenFile implements OpenFile {
 	 * number of bytes actually written or read, and as a side effect, increment
 	 * the current position within the file.
 	 *
-	 * Implemented using the more primitive ReadAt/WriteAt.
+	 * Implemented using the more primitive ReadAt/WriteAt. The seek position
+	 * belongs to whoever opened the file; processes sharing one NachosOpenFile
+	 * should use the positional calls, which are safe to use concurrently.
 	 *
 	 * @param into
 	 *            the buffer to contain the data to be read from disk
@@ -112,26 +136,337 @@ public class NachosOpenFile implements OpenFile {
 	 *            ----------------------------------------------------------------------
 	 */
 	public int readAt(byte[] into, int numBytes, int position) {
-		assert (position + numBytes < mHdr.fileLength());
+		mLock.acquireRead();
+		int result = readAt(ByteBuffer.wrap(into, 0, numBytes), numBytes, position);
+		mLock.releaseRead();
+		return result;
+	}
+
+	/**
+	 * Read the sectors covering [position, position + numBytes) and put the
+	 * requested part of each straight into "into". A heap buffer is filled
+	 * through its backing array; a direct buffer gets one bulk put per sector.
+	 *
+	 * @param into
+	 *            the buffer to contain the data, filled from its position
+	 * @param numBytes
+	 *            the number of bytes to transfer
+	 * @param position
+	 *            the offset within the file of the first byte to be read
+	 * @return the number of bytes read
+	 */
+	private int readAt(ByteBuffer into, int numBytes, int position) {
+		assert (position + numBytes <= mHdr.fileLength());
 		int begin = position / Disk.SectorSize;
 		int end = (int) Math.ceil((position + numBytes) * 1.0 / Disk.SectorSize);
 		int beginByte = 0;
 
+		// fetch every sector up front so neighbouring ones share a request
+		TreeMap<Integer, byte[]> sectors = new TreeMap<Integer, byte[]>();
 		for (int i = begin; i < end; i++) {
-			byte[] sectorInfo = new byte[Disk.SectorSize];
-			JNachos.mSynchDisk.readSector(mHdr.mDataSectors[i], sectorInfo);
-			if (i == begin) {
-				System.arraycopy(sectorInfo, position % Disk.SectorSize, into, beginByte, Math.min((Disk.SectorSize - position % Disk.SectorSize), numBytes - beginByte));
-				beginByte = Math.min((Disk.SectorSize - position % Disk.SectorSize), numBytes - beginByte);
-			} else {
-				System.arraycopy(sectorInfo, 0, into, beginByte, Math.min(Disk.SectorSize, numBytes - beginByte));
-				beginByte += Math.min(Disk.SectorSize, numBytes - beginByte);
+			if (!mHdr.isHole(i)) {
+				sectors.put(mHdr.mDataSectors[i], new byte[Disk.SectorSize]);
 			}
 		}
+		readSectors(sectors);
+
+		for (int i = begin; i < end; i++) {
+			// holes read back as zeros without touching the disk
+			byte[] sectorInfo = mHdr.isHole(i) ? EmptySector : sectors.get(mHdr.mDataSectors[i]);
+			int offset = (i == begin) ? position % Disk.SectorSize : 0;
+			int count = Math.min(Disk.SectorSize - offset, numBytes - beginByte);
+			into.put(sectorInfo, offset, count);
+			beginByte += count;
+		}
 
 		return numBytes;
 	}
 
+	/**
+	 * Read a set of segments. The sectors behind all of them are gathered,
+	 * sorted by disk location and fetched with as few disk requests as
+	 * possible before any data is copied out. Each segment stops at the end
+	 * of the file.
+	 *
+	 * @param vectors
+	 *            the segments to read
+	 * @return the total number of bytes read
+	 */
+	public int readv(List<IOVector> vectors) {
+		mLock.acquireRead();
+		TreeMap<Integer, byte[]> sectors = new TreeMap<Integer, byte[]>();
+		for (IOVector v : vectors) {
+			int numBytes = Math.max(0, Math.min(v.length, mHdr.fileLength() - v.offset));
+			if (numBytes == 0) {
+				continue;
+			}
+			int end = (int) Math.ceil((v.offset + numBytes) * 1.0 / Disk.SectorSize);
+			for (int i = v.offset / Disk.SectorSize; i < end; i++) {
+				if (!mHdr.isHole(i)) {
+					sectors.put(mHdr.mDataSectors[i], new byte[Disk.SectorSize]);
+				}
+			}
+		}
+		readSectors(sectors);
+
+		int total = 0;
+		for (IOVector v : vectors) {
+			int numBytes = Math.max(0, Math.min(v.length, mHdr.fileLength() - v.offset));
+			if (numBytes == 0) {
+				continue;
+			}
+			for (int done = 0; done < numBytes;) {
+				int i = (v.offset + done) / Disk.SectorSize;
+				int offset = (v.offset + done) % Disk.SectorSize;
+				int count = Math.min(Disk.SectorSize - offset, numBytes - done);
+				byte[] sectorInfo = mHdr.isHole(i) ? EmptySector : sectors.get(mHdr.mDataSectors[i]);
+				System.arraycopy(sectorInfo, offset, v.buffer, v.bufferOffset + done, count);
+				done += count;
+			}
+			total += numBytes;
+		}
+		mLock.releaseRead();
+		return total;
+	}
+
+	/**
+	 * Write a set of segments. Runs of segments that lie inside the space
+	 * already described by the header are applied together: partially
+	 * covered sectors are read in one sorted batch, the data is copied in,
+	 * and every touched sector goes back out in one sorted batch. A segment
+	 * that grows the file is handed to writeAt on its own, in order. Writing
+	 * stops at the first segment that does not fit below MaxFileSize.
+	 *
+	 * @param vectors
+	 *            the segments to write
+	 * @return the total number of bytes written
+	 */
+	public int writev(List<IOVector> vectors) {
+		int total = 0;
+		List<IOVector> batch = new ArrayList<IOVector>();
+
+		mLock.acquireWrite();
+
+		for (IOVector v : vectors) {
+			if (v.length == 0) {
+				continue;
+			}
+			if (v.offset + v.length <= mHdr.getmNumSectors() * Disk.SectorSize) {
+				batch.add(v);
+				total += v.length;
+			} else {
+				writeBatch(batch);
+				batch.clear();
+				int numWritten = writeAt(v.buffer, v.bufferOffset, v.length, v.offset);
+				total += numWritten;
+
+				// the file is full; nothing after this segment goes in
+				if (numWritten < v.length) {
+					break;
+				}
+			}
+		}
+		writeBatch(batch);
+		if (total > 0) {
+			mHeaderDirty = true;
+		}
+		mLock.releaseWrite();
+
+		return total;
+	}
+
+	/**
+	 * Write segments that all lie inside the space described by the header.
+	 * Holes they touch are allocated here.
+	 *
+	 * @param pBatch
+	 *            the segments to write, in order
+	 */
+	private void writeBatch(List<IOVector> pBatch) {
+		if (pBatch.isEmpty()) {
+			return;
+		}
+
+		TreeMap<Integer, byte[]> sectors = new TreeMap<Integer, byte[]>();
+		TreeMap<Integer, byte[]> partial = new TreeMap<Integer, byte[]>();
+		int newLength = mHdr.fileLength();
+
+		for (IOVector v : pBatch) {
+			int end = (int) Math.ceil((v.offset + v.length) * 1.0 / Disk.SectorSize);
+			for (int i = v.offset / Disk.SectorSize; i < end; i++) {
+				// a new fragment is all zeros, nothing to read
+				if (mHdr.isHole(i)) {
+					int first = allocateHole(i);
+					for (int j = first; j < first + Disk.NUM_OF_SECTORS_IN_A_FRAGMENT; j++) {
+						sectors.put(mHdr.mDataSectors[j], new byte[Disk.SectorSize]);
+					}
+				}
+
+				int sector = mHdr.mDataSectors[i];
+				if (!sectors.containsKey(sector)) {
+					byte[] sectorInfo = new byte[Disk.SectorSize];
+					sectors.put(sector, sectorInfo);
+					if (v.offset > i * Disk.SectorSize || v.offset + v.length < (i + 1) * Disk.SectorSize) {
+						partial.put(sector, sectorInfo);
+					}
+				}
+			}
+			newLength = Math.max(newLength, v.offset + v.length);
+		}
+		readSectors(partial);
+
+		for (IOVector v : pBatch) {
+			for (int done = 0; done < v.length;) {
+				int i = (v.offset + done) / Disk.SectorSize;
+				int offset = (v.offset + done) % Disk.SectorSize;
+				int count = Math.min(Disk.SectorSize - offset, v.length - done);
+				System.arraycopy(v.buffer, v.bufferOffset + done, sectors.get(mHdr.mDataSectors[i]), offset, count);
+				done += count;
+			}
+		}
+		writeSectors(sectors);
+
+		mHdr.setNumBytes(newLength);
+	}
+
+	/**
+	 * Read the given disk sectors, each into the buffer it maps to. Runs of
+	 * consecutive sectors are fetched with a single disk request.
+	 *
+	 * @param pSectors
+	 *            the sectors to read, mapped to their buffers
+	 */
+	private static void readSectors(SortedMap<Integer, byte[]> pSectors) {
+		Integer[] keys = pSectors.keySet().toArray(new Integer[pSectors.size()]);
+
+		for (int start = 0, end; start < keys.length; start = end) {
+			end = runEnd(keys, start);
+			if (end - start == 1) {
+				JNachos.mSynchDisk.readSector(keys[start], pSectors.get(keys[start]));
+				continue;
+			}
+
+			byte[] run = new byte[(end - start) * Disk.SectorSize];
+			JNachos.mSynchDisk.readSectors(keys[start], end - start, run);
+			for (int k = start; k < end; k++) {
+				System.arraycopy(run, (k - start) * Disk.SectorSize, pSectors.get(keys[k]), 0, Disk.SectorSize);
+			}
+		}
+	}
+
+	/**
+	 * Write the given disk sectors, each from the buffer it maps to. Runs of
+	 * consecutive sectors are written with a single disk request.
+	 *
+	 * @param pSectors
+	 *            the sectors to write, mapped to their new contents
+	 */
+	private static void writeSectors(SortedMap<Integer, byte[]> pSectors) {
+		Integer[] keys = pSectors.keySet().toArray(new Integer[pSectors.size()]);
+
+		for (int start = 0, end; start < keys.length; start = end) {
+			end = runEnd(keys, start);
+			if (end - start == 1) {
+				JNachos.mSynchDisk.writeSector(keys[start], pSectors.get(keys[start]));
+				continue;
+			}
+
+			byte[] run = new byte[(end - start) * Disk.SectorSize];
+			for (int k = start; k < end; k++) {
+				System.arraycopy(pSectors.get(keys[k]), 0, run, (k - start) * Disk.SectorSize, Disk.SectorSize);
+			}
+			JNachos.mSynchDisk.writeSectors(keys[start], end - start, run);
+		}
+	}
+
+	/**
+	 * Find the end of the run of consecutive sector numbers starting at
+	 * pStart.
+	 *
+	 * @param pKeys
+	 *            sorted sector numbers
+	 * @param pStart
+	 *            the index of the first sector of the run
+	 * @return the index one past the last sector of the run
+	 */
+	private static int runEnd(Integer[] pKeys, int pStart) {
+		int end = pStart + 1;
+		while (end < pKeys.length && pKeys[end] == pKeys[end - 1] + 1) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Read from the file starting at "position" into the remaining space of
+	 * "into", advancing its position by the number of bytes read.
+	 *
+	 * @param into
+	 *            the buffer to read into
+	 * @param position
+	 *            the offset within the file of the first byte to be read
+	 * @return the number of bytes read, or -1 if position is at or past the
+	 *         end of the file
+	 */
+	public int read(ByteBuffer into, int position) {
+		mLock.acquireRead();
+		int result = -1;
+		if (position < mHdr.fileLength()) {
+			int numBytes = Math.min(into.remaining(), mHdr.fileLength() - position);
+			result = readAt(into, numBytes, position);
+		}
+		mLock.releaseRead();
+		return result;
+	}
+
+	/**
+	 * Write the remaining bytes of "from" to the file starting at "position",
+	 * advancing its position past them. A heap buffer is written straight out
+	 * of its backing array; a direct buffer is drained once into a scratch
+	 * array, which the write path needs anyway to reassemble the tail.
+	 *
+	 * @param from
+	 *            the buffer to write from
+	 * @param position
+	 *            the offset within the file of the first byte to be written
+	 * @return the number of bytes written
+	 */
+	public int write(ByteBuffer from, int position) {
+		int numBytes = from.remaining();
+		if (numBytes == 0) {
+			return 0;
+		}
+
+		int result;
+		mLock.acquireWrite();
+		if (from.hasArray()) {
+			result = writeAt(from.array(), from.arrayOffset() + from.position(), numBytes, position);
+			from.position(from.position() + result);
+		} else {
+			int start = from.position();
+			byte[] data = new byte[numBytes];
+			from.get(data);
+			result = writeAt(data, 0, numBytes, position);
+
+			// only what was written counts as consumed
+			from.position(start + result);
+		}
+		if (result > 0) {
+			mHeaderDirty = true;
+		}
+		mLock.releaseWrite();
+		return result;
+	}
+
+	/**
+	 * Returns a channel over this file with its own position, starting at 0.
+	 *
+	 * @return a new channel over this file
+	 */
+	public SeekableByteChannel getChannel() {
+		return new OpenFileChannel(this);
+	}
+
 	/**
 	 * Write a portion of a file, starting at "position". Return the number
 	 * of bytes actually written or read, but has no side effects (except that
@@ -143,34 +478,56 @@ public class NachosOpenFile implements OpenFile {
 	 * @return
 	 */
 	public int writeAt(byte[] from, int numBytes, int position) {
+		mLock.acquireWrite();
+		int result = writeAt(from, 0, numBytes, position);
+		mHeaderDirty = true;
+		mLock.releaseWrite();
+		return result;
+	}
+
+	/**
+	 * Does the work for writeAt, taking the data from "from" starting at
+	 * index pOffset.
+	 *
+	 * @param from
+	 *            the buffer containing the data to be written to disk
+	 * @param pOffset
+	 *            the index in "from" of the first byte to write
+	 * @param numBytes
+	 *            the number of bytes to transfer
+	 * @param position
+	 *            the offset within the file of the first byte to be written
+	 * @return the number of bytes written, short if the file would grow past
+	 *         FileHeader.MaxFileSize
+	 */
+	private int writeAt(byte[] from, int pOffset, int numBytes, int position) {
+		// The header cannot describe a file any longer than MaxFileSize
+		numBytes = Math.min(numBytes, FileHeader.MaxFileSize - position);
+		if (numBytes <= 0) {
+			return 0;
+		}
+
 		int oldFileSize = (int) Math.ceil((((double) mHdr.fileLength()) / Disk.SINGLE_FRAGMENT_SIZE)) * Disk.SINGLE_FRAGMENT_SIZE;
 		int newFileSize = position + numBytes;
 
+		// A write starting past the allocated end leaves a hole in front of it
+		if (position > oldFileSize) {
+			return writeBeyondEnd(from, pOffset, numBytes, position);
+		}
+
 		int begin = position / Disk.SectorSize;
 		int end = newFileSize > oldFileSize ? mHdr.getmNumSectors() : (int) Math.ceil(((double)newFileSize) / Disk.SectorSize);
 		int startByte = 0;
 
 		if (newFileSize < oldFileSize || position < oldFileSize) {
-
-			for (int i = begin; i < end; i++) {
-				byte[] sectorInfo = new byte[Disk.SectorSize];
-				JNachos.mSynchDisk.readSector(mHdr.mDataSectors[i], sectorInfo);
-				if (i == begin) {
-					System.arraycopy(from, startByte, sectorInfo, position % Disk.SectorSize, Math.min(Disk.SectorSize - (position % Disk.SectorSize), numBytes - startByte));
-					startByte = Math.min(Disk.SectorSize - (position % Disk.SectorSize), numBytes - startByte);
-				} else {
-					System.arraycopy(from, startByte, sectorInfo, 0, Math.min(Disk.SectorSize, numBytes - startByte));
-					startByte += Math.min(Disk.SectorSize, numBytes - startByte);
-				}
-				JNachos.mSynchDisk.writeSector(mHdr.mDataSectors[i], sectorInfo);
-			}
+			startByte = overwriteSectors(from, pOffset, numBytes, position, begin, end);
 		}
 
 		if (newFileSize > oldFileSize) {
 			byte[] newData = null;
 			if (oldFileSize % Disk.SINGLE_BLOCK_SIZE == 0) {
 				newData = new byte[numBytes - startByte];
-				System.arraycopy(from, startByte, newData, 0, numBytes - startByte);
+				System.arraycopy(from, pOffset + startByte, newData, 0, numBytes - startByte);
 			} else {
 
 
@@ -178,15 +535,19 @@ public class NachosOpenFile implements OpenFile {
 				newData = new byte[Disk.SectorSize * noOfFragments * Disk.NUM_OF_SECTORS_IN_A_FRAGMENT + (numBytes - startByte)];
 				int start = oldFileSize / Disk.SINGLE_BLOCK_SIZE * Disk.NUM_OF_SECTORS_IN_A_BLOCK;
 				for (int i = 0; i < noOfFragments * Disk.NUM_OF_SECTORS_IN_A_FRAGMENT; i++) {
+					// a hole in the tail is already zero in newData
+					if (mHdr.isHole(start + i)) {
+						continue;
+					}
 					byte[] sectorData = new byte[Disk.SectorSize];
 					JNachos.mSynchDisk.readSector(mHdr.mDataSectors[start + i], sectorData);
 					System.arraycopy(sectorData, 0, newData, i * Disk.SectorSize, Disk.SectorSize);
 					NachosFileSystem.mFreeMap.clear(mHdr.mDataSectors[start + i]);
-					mHdr.mDataSectors[start + i] = 0;
+					mHdr.mDataSectors[start + i] = FileHeader.HoleSector;
 				}
 
 
-				System.arraycopy(from, startByte, newData, noOfFragments * Disk.SINGLE_FRAGMENT_SIZE, numBytes - startByte);
+				System.arraycopy(from, pOffset + startByte, newData, noOfFragments * Disk.SINGLE_FRAGMENT_SIZE, numBytes - startByte);
 			}
 
 			int[] sectors = NachosFileSystem.mFreeMap.find(newData.length);
@@ -210,10 +571,132 @@ public class NachosOpenFile implements OpenFile {
 	}
 
 	/**
-	 * Closes the file
+	 * Write a portion of a file that starts beyond its allocated end. The gap
+	 * between the old end and "position" becomes a hole, and only the
+	 * fragments actually written are allocated.
+	 *
+	 * @param from
+	 *            the buffer containing the data to be written to disk
+	 * @param pOffset
+	 *            the index in "from" of the first byte to write
+	 * @param numBytes
+	 *            the number of bytes to transfer
+	 * @param position
+	 *            the offset within the file of the first byte to be written
+	 * @return the number of bytes written
 	 */
-	public void closeFile() {
+	private int writeBeyondEnd(byte[] from, int pOffset, int numBytes, int position) {
+		int newFileSize = position + numBytes;
+		assert (newFileSize <= FileHeader.MaxFileSize);
+
+		// every pointer past the old end starts out as a hole
+		int oldSectors = mHdr.getmNumSectors();
+		mHdr.setNumBytes(newFileSize);
+		Arrays.fill(mHdr.mDataSectors, oldSectors, mHdr.getmNumSectors(), FileHeader.HoleSector);
+
+		int begin = position / Disk.SectorSize;
+		int end = (int) Math.ceil(((double) newFileSize) / Disk.SectorSize);
+		overwriteSectors(from, pOffset, numBytes, position, begin, end);
 
+		return numBytes;
+	}
+
+	/**
+	 * Copy data over the already described sectors [pBegin, pEnd) of the
+	 * file, reading in any sector that is only partially written. Holes in the
+	 * range are allocated on the way.
+	 *
+	 * @param from
+	 *            the buffer containing the data to be written to disk
+	 * @param pOffset
+	 *            the index in "from" of the first byte to write
+	 * @param numBytes
+	 *            the number of bytes to transfer
+	 * @param position
+	 *            the offset within the file of the first byte to be written
+	 * @param pBegin
+	 *            the first file sector to write
+	 * @param pEnd
+	 *            one past the last file sector to write
+	 * @return the number of bytes of "from" consumed
+	 */
+	private int overwriteSectors(byte[] from, int pOffset, int numBytes, int position, int pBegin, int pEnd) {
+		int startByte = 0;
+
+		// sectors below this index were allocated by this call and hold zeros
+		int freshUntil = pBegin;
+
+		for (int i = pBegin; i < pEnd; i++) {
+			byte[] sectorInfo = new byte[Disk.SectorSize];
+			if (mHdr.isHole(i)) {
+				freshUntil = fillHole(i, pBegin, pEnd);
+			}
+			if (i >= freshUntil) {
+				JNachos.mSynchDisk.readSector(mHdr.mDataSectors[i], sectorInfo);
+			}
+			if (i == pBegin) {
+				System.arraycopy(from, pOffset + startByte, sectorInfo, position % Disk.SectorSize, Math.min(Disk.SectorSize - (position % Disk.SectorSize), numBytes - startByte));
+				startByte = Math.min(Disk.SectorSize - (position % Disk.SectorSize), numBytes - startByte);
+			} else {
+				System.arraycopy(from, pOffset + startByte, sectorInfo, 0, Math.min(Disk.SectorSize, numBytes - startByte));
+				startByte += Math.min(Disk.SectorSize, numBytes - startByte);
+			}
+			JNachos.mSynchDisk.writeSector(mHdr.mDataSectors[i], sectorInfo);
+		}
+
+		return startByte;
+	}
+
+	/**
+	 * Back the hole at file sector pSector with a newly allocated fragment.
+	 * Holes are always a whole fragment wide, so the fragment's other sectors
+	 * are holes too; those outside [pBegin, pEnd) are zeroed here, the caller
+	 * writes the rest.
+	 *
+	 * @param pSector
+	 *            the index of the hole within the file
+	 * @param pBegin
+	 *            the first file sector the caller is about to write
+	 * @param pEnd
+	 *            one past the last file sector the caller is about to write
+	 * @return the index of the first file sector past the new fragment
+	 */
+	private int fillHole(int pSector, int pBegin, int pEnd) {
+		int first = allocateHole(pSector);
+
+		for (int j = first; j < first + Disk.NUM_OF_SECTORS_IN_A_FRAGMENT; j++) {
+			if (j < pBegin || j >= pEnd) {
+				JNachos.mSynchDisk.writeSector(mHdr.mDataSectors[j], new byte[Disk.SectorSize]);
+			}
+		}
+
+		return first + Disk.NUM_OF_SECTORS_IN_A_FRAGMENT;
+	}
+
+	/**
+	 * Allocate a fragment for the hole at file sector pSector and point the
+	 * fragment's sectors of the file at it. The caller must write them.
+	 *
+	 * @param pSector
+	 *            the index of the hole within the file
+	 * @return the index of the first file sector of the fragment
+	 */
+	private int allocateHole(int pSector) {
+		int first = pSector - pSector % Disk.NUM_OF_SECTORS_IN_A_FRAGMENT;
+		int[] sectors = NachosFileSystem.mFreeMap.find(Disk.SINGLE_FRAGMENT_SIZE);
+		assert (sectors.length == Disk.NUM_OF_SECTORS_IN_A_FRAGMENT);
+
+		System.arraycopy(sectors, 0, mHdr.mDataSectors, first, sectors.length);
+		return first;
+	}
+
+	/**
+	 * Closes the file, writing the header back if writes have changed it.
+	 */
+	public void closeFile() {
+		if (mHeaderDirty) {
+			writeHeader();
+		}
 	}
 
 	/**
@@ -231,10 +714,22 @@ public class NachosOpenFile implements OpenFile {
 	}
 
 	/**
-	 * Write information to header
+	 * Write information to header. The write lock is held, as clearing
+	 * mHeaderDirty must not race with a write that sets it again.
 	 */
 	public void writeHeader() {
+		mLock.acquireWrite();
 		mHdr.writeBack(mHeaderSectorNum);
+		mHeaderDirty = false;
+		mLock.releaseWrite();
+	}
+
+	/**
+	 * Return the disk sector holding the file header, which identifies the
+	 * file.
+	 */
+	public int getHeaderSector() {
+		return mHeaderSectorNum;
 	}
 
 }
@@ -7,6 +7,10 @@
  */
 package jnachos.filesystem;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.List;
+
 /**
  * This interface displays the api a class needs to support in order to be
  * considered an openfile.
@@ -54,6 +58,62 @@ public interface OpenFile {
 	 */
 	public int write(byte[] from, int numBytes);
 
+	/**
+	 * Reads from the file at the given position into the remaining space of
+	 * the buffer, advancing the buffer's position. Does not move the file's
+	 * own seek position.
+	 * 
+	 * @param into
+	 *            the buffer to read into.
+	 * @param position
+	 *            the location in the file to read from.
+	 * @return the number of bytes read, or -1 if position is at or past the
+	 *         end of the file.
+	 */
+	public int read(ByteBuffer into, int position);
+
+	/**
+	 * Writes the remaining bytes of the buffer into the file at the given
+	 * position, advancing the buffer's position. Does not move the file's own
+	 * seek position.
+	 * 
+	 * @param from
+	 *            the buffer to write from.
+	 * @param position
+	 *            the location in the file to write to.
+	 * @return the number of bytes written.
+	 */
+	public int write(ByteBuffer from, int position);
+
+	/**
+	 * Reads each segment from its location in the file into its buffer,
+	 * stopping each one at the end of the file. The segments may be served in
+	 * any order.
+	 * 
+	 * @param vectors
+	 *            the segments to read.
+	 * @return the total number of bytes read.
+	 */
+	public int readv(List<IOVector> vectors);
+
+	/**
+	 * Writes each segment from its buffer to its location in the file. Where
+	 * segments overlap, later ones win.
+	 * 
+	 * @param vectors
+	 *            the segments to write.
+	 * @return the total number of bytes written.
+	 */
+	public int writev(List<IOVector> vectors);
+
+	/**
+	 * Returns a channel over the file, so that it can be streamed with the
+	 * standard NIO classes. Closing the channel closes the file.
+	 * 
+	 * @return a channel over the file.
+	 */
+	public SeekableByteChannel getChannel();
+
 	/**
 	 * 
 	 * @return
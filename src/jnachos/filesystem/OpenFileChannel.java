@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation 
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Adapts an OpenFile to a SeekableByteChannel. The channel keeps its own
+ * position and hands each transfer to the file's positional ByteBuffer read
+ * and write, so no intermediate array is needed.
+ *
+ */
+public class OpenFileChannel implements SeekableByteChannel {
+	/** The file this channel reads and writes. */
+	private OpenFile mFile;
+
+	/** The position of the next read or write. */
+	private long mPosition;
+
+	/** Whether the channel is still open. */
+	private boolean mOpen;
+
+	/**
+	 * Creates a channel over the file, positioned at its start.
+	 * 
+	 * @param pFile
+	 *            the file to adapt.
+	 */
+	public OpenFileChannel(OpenFile pFile) {
+		mFile = pFile;
+		mPosition = 0;
+		mOpen = true;
+	}
+
+	/**
+	 * Reads from the current position into the buffer.
+	 * 
+	 * @param pDst
+	 *            the buffer to read into.
+	 * @return the number of bytes read, or -1 at the end of the file.
+	 */
+	public int read(ByteBuffer pDst) throws IOException {
+		ensureOpen();
+		if (mPosition >= mFile.length()) {
+			return -1;
+		}
+		int numRead = mFile.read(pDst, (int) mPosition);
+		if (numRead > 0) {
+			mPosition += numRead;
+		}
+		return numRead;
+	}
+
+	/**
+	 * Writes the buffer at the current position.
+	 * 
+	 * @param pSrc
+	 *            the buffer to write from.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if nothing could be written, as the file cannot grow.
+	 */
+	public int write(ByteBuffer pSrc) throws IOException {
+		ensureOpen();
+		int numWritten = mFile.write(pSrc, (int) mPosition);
+		if (numWritten <= 0 && pSrc.hasRemaining()) {
+			throw new IOException("cannot write at position " + mPosition);
+		}
+		mPosition += numWritten;
+		return numWritten;
+	}
+
+	/**
+	 * Returns the position of the next read or write.
+	 */
+	public long position() throws IOException {
+		ensureOpen();
+		return mPosition;
+	}
+
+	/**
+	 * Moves the position of the next read or write.
+	 * 
+	 * @param pNewPosition
+	 *            the new position, which may be past the end of the file.
+	 */
+	public SeekableByteChannel position(long pNewPosition) throws IOException {
+		ensureOpen();
+		if (pNewPosition < 0 || pNewPosition > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("position: " + pNewPosition);
+		}
+		mPosition = pNewPosition;
+		return this;
+	}
+
+	/**
+	 * Returns the length of the file.
+	 */
+	public long size() throws IOException {
+		ensureOpen();
+		return mFile.length();
+	}
+
+	/**
+	 * Files cannot shrink, so this only pulls the position back to pSize. A
+	 * size below the current length is not supported.
+	 * 
+	 * @param pSize
+	 *            the size to truncate to.
+	 */
+	public SeekableByteChannel truncate(long pSize) throws IOException {
+		ensureOpen();
+		if (pSize < 0) {
+			throw new IllegalArgumentException("size: " + pSize);
+		}
+		if (pSize < mFile.length()) {
+			throw new UnsupportedOperationException("files cannot be truncated");
+		}
+		mPosition = Math.min(mPosition, pSize);
+		return this;
+	}
+
+	/**
+	 * Returns whether the channel is open.
+	 */
+	public boolean isOpen() {
+		return mOpen;
+	}
+
+	/**
+	 * Closes the channel and the file under it.
+	 */
+	public void close() {
+		if (mOpen) {
+			mOpen = false;
+			mFile.closeFile();
+		}
+	}
+
+	/**
+	 * Throws if the channel has been closed.
+	 */
+	private void ensureOpen() throws ClosedChannelException {
+		if (!mOpen) {
+			throw new ClosedChannelException();
+		}
+	}
+}
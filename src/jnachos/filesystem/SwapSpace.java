@@ -1,32 +1,156 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ *
+ *  Created by Patrick McSweeney on 12/5/08.
+ */
 package jnachos.filesystem;
 
-import jnachos.kern.Debug;
 import jnachos.kern.JNachos;
+import jnachos.machine.*;
 
-public class SwapSpace  {
+/**
+ * The swap partition: a fixed run of sectors at the end of the disk, set aside
+ * in the free map when the file system starts, where the virtual memory
+ * system keeps pages that are not in main memory. A page is the size of a
+ * sector, so each sector is one swap slot.
+ *
+ * Slots are handed out in clusters, one run of consecutive slots per address
+ * space, so that neighbouring pages of a process are neighbouring sectors on
+ * the disk and can be read or written with a single disk request.
+ *
+ * This class is abstract and should not be instantiated.
+ */
+public abstract class SwapSpace {
+	/** The number of slots in the swap partition. */
+	public static final int NumSlots = 256;
 
-    static final String basicFilename = "processSwapFile";
+	/** The disk sector holding the first slot. */
+	public static final int FirstSector = Disk.NumSectors - NumSlots;
 
-    //Create a swap file
-    public String createSpace(int spaceSize){
-        long createTime = System.currentTimeMillis();
-        String filename = basicFilename + createTime;
-        boolean status = JNachos.mFileSystem.create(filename,spaceSize);
+	/** Which slots are allocated. */
+	private static BitMap mSlots = new BitMap(NumSlots);
 
-        if(status){
-            //debug it is success full
-            Debug.print('a', "Swap space file " + filename + " created");
-            return filename;
+	/** Set if the partition could not be set aside, so no slot is handed out. */
+	private static boolean mDisabled;
 
-        }else{
-            System.out.println("Filed to create swap file");
-        }
-        return "";
-    }
+	/**
+	 * Set the swap partition aside in the file system's map of free sectors,
+	 * so that no file is ever given one of its sectors.
+	 *
+	 * @param pFreeMap
+	 *            the free sector map.
+	 */
+	public static void reserve(BitMap pFreeMap) {
+		assert (Machine.PageSize == Disk.SectorSize);
+		for (int slot = 0; slot < NumSlots; slot++) {
+			pFreeMap.mark(FirstSector + slot);
+		}
+		mDisabled = false;
+	}
 
-    //Open the swap file to write an dread
-    public OpenFile open(String filename) {
-        OpenFile processSpace = JNachos.mFileSystem.open(filename);
-        return processSpace;
-    }
+	/**
+	 * Turn swapping off, because files already own sectors of the partition.
+	 * No slot is allocated from then on, so pages are never written over
+	 * them.
+	 */
+	public static void disable() {
+		mDisabled = true;
+	}
+
+	/**
+	 * Whether a disk sector lies in the swap partition.
+	 *
+	 * @param pSector
+	 *            the sector.
+	 */
+	public static boolean contains(int pSector) {
+		return pSector >= FirstSector && pSector < FirstSector + NumSlots;
+	}
+
+	/**
+	 * Allocate a cluster of consecutive slots, the first that fits.
+	 *
+	 * @param pNumSlots
+	 *            the number of slots wanted.
+	 * @return the first slot of the cluster, or -1 if there is no run of free
+	 *         slots that long or swapping is off.
+	 */
+	public static int allocate(int pNumSlots) {
+		if (mDisabled) {
+			return -1;
+		}
+
+		int runStart = 0;
+		for (int slot = 0; slot < NumSlots; slot++) {
+			if (mSlots.test(slot)) {
+				runStart = slot + 1;
+			} else if (slot - runStart + 1 == pNumSlots) {
+				for (int i = runStart; i <= slot; i++) {
+					mSlots.mark(i);
+				}
+				return runStart;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Free a cluster of slots.
+	 *
+	 * @param pFirstSlot
+	 *            the first slot of the cluster.
+	 * @param pNumSlots
+	 *            the number of slots in the cluster.
+	 */
+	public static void free(int pFirstSlot, int pNumSlots) {
+		for (int slot = pFirstSlot; slot < pFirstSlot + pNumSlots; slot++) {
+			assert (mSlots.test(slot));
+			mSlots.clear(slot);
+		}
+	}
+
+	/**
+	 * Returns the number of unallocated slots.
+	 */
+	public static int numFree() {
+		return mSlots.numClear();
+	}
+
+	/**
+	 * Read a run of consecutive slots with one disk request.
+	 *
+	 * @param pFirstSlot
+	 *            the first slot to read.
+	 * @param pNumSlots
+	 *            the number of slots to read.
+	 * @param pInto
+	 *            the buffer to read into.
+	 * @param pOffset
+	 *            where in the buffer to put the first slot.
+	 */
+	public static void read(int pFirstSlot, int pNumSlots, byte[] pInto, int pOffset) {
+		byte[] buffer = new byte[pNumSlots * Disk.SectorSize];
+		JNachos.mSynchDisk.readSectors(FirstSector + pFirstSlot, pNumSlots, buffer);
+		System.arraycopy(buffer, 0, pInto, pOffset, buffer.length);
+	}
+
+	/**
+	 * Write a run of consecutive slots with one disk request.
+	 *
+	 * @param pFirstSlot
+	 *            the first slot to write.
+	 * @param pNumSlots
+	 *            the number of slots to write.
+	 * @param pFrom
+	 *            the buffer to write from.
+	 * @param pOffset
+	 *            where in the buffer the first slot's contents are.
+	 */
+	public static void write(int pFirstSlot, int pNumSlots, byte[] pFrom, int pOffset) {
+		byte[] buffer = new byte[pNumSlots * Disk.SectorSize];
+		System.arraycopy(pFrom, pOffset, buffer, 0, buffer.length);
+		JNachos.mSynchDisk.writeSectors(FirstSector + pFirstSlot, pNumSlots, buffer);
+	}
 }
@@ -95,6 +95,42 @@ public class SynchDisk implements VoidFunctionPtr {
 		mLock.release();
 	}
 
+	/**
+	 * Read a run of consecutive disk sectors into a buffer with a single disk
+	 * request. Return only after the data has been read.
+	 *
+	 * @param firstSector
+	 *            the first disk sector to read.
+	 * @param numSectors
+	 *            the number of sectors to read.
+	 * @param data
+	 *            the buffer to hold the contents of the sectors.
+	 */
+	public void readSectors(int firstSector, int numSectors, byte[] data) {
+		mLock.acquire(); // only one disk I/O at a time
+		mDisk.readRequest(firstSector, numSectors, data);
+		mSemaphore.P(); // wait for interrupt
+		mLock.release();
+	}
+
+	/**
+	 * Write a buffer into a run of consecutive disk sectors with a single
+	 * disk request. Return only after the data has been written.
+	 *
+	 * @param firstSector
+	 *            the first disk sector to be written.
+	 * @param numSectors
+	 *            the number of sectors to be written.
+	 * @param data
+	 *            the new contents of the sectors.
+	 */
+	public void writeSectors(int firstSector, int numSectors, byte[] data) {
+		mLock.acquire(); // only one disk I/O at a time
+		mDisk.writeRequest(firstSector, numSectors, data);
+		mSemaphore.P(); // wait for interrupt
+		mLock.release();
+	}
+
 	/**
 	 * Disk interrupt handler. Wake up any thread waiting for the disk request
 	 * to finish.
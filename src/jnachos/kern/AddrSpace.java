@@ -9,6 +9,7 @@ package jnachos.kern;
 
 import jnachos.machine.*;
 import jnachos.userbin.NoffHeader;
+import jnachos.userbin.Segment;
 import jnachos.filesystem.*;
 
 import javax.sound.midi.Soundbank;
@@ -35,11 +36,35 @@ public class AddrSpace {
 	 */
 	public static final int UserStackSize = 1024;
 
-	public static BitMap mFreeMap = new BitMap(Machine.NumPhysPages);
+	/**
+	 * The first of our cluster of slots in the swap partition, or -1 until a
+	 * page is first written back. Virtual page n uses slot mSwapBase + n.
+	 */
+	private int mSwapBase = -1;
+
+	/**
+	 * The pages mapped by the page table, shared with forked address spaces
+	 * until one of them writes.
+	 */
+	private Page[] mPages;
+
+	/** The number of pages whose swap slot is in our cluster. */
+	private int mSwapUsers;
+
+	/** Set once the process using this address space has let go of it. */
+	private boolean mReleased;
 
-	private static Map<String,TranslationEntry> pagesOnRAM = new LinkedHashMap<>(Machine.NumPhysPages) ;
+	/**
+	 * The file header sector of the executable whose cached text we share,
+	 * or -1.
+	 */
+	private int mTextSector = -1;
 
-	private OpenFile swapFile;
+	/**
+	 * The size of the aligned groups of virtual pages read in together on a
+	 * page fault. 1 reads only the faulting page.
+	 */
+	private static int mFaultAround = 4;
 
 	/**
 	 * Do little endian to big endian conversion on the bytes in the object file
@@ -104,12 +129,6 @@ public class AddrSpace {
 		// Recalculate based on the number of pages
 		size = mNumPages * Machine.PageSize;
 
-		//Create swap file per process
-		SwapSpace swapSpace = new SwapSpace();
-		String swapFilename = swapSpace.createSpace(size);
-
-		swapFile = swapSpace.open(swapFilename);
-
 		// check we're not trying to run anything too big --
 		// at least until we have virtual memory
 //		assert (mNumPages <= Machine.NumPhysPages);
@@ -118,6 +137,7 @@ public class AddrSpace {
 
 		// first, set up the translation
 		mPageTable = new TranslationEntry[mNumPages];
+		mPages = new Page[mNumPages];
 		for (int i = 0; i < mNumPages; i++) {
 			mPageTable[i] = new TranslationEntry();
 			mPageTable[i].virtualPage = i;
@@ -131,79 +151,138 @@ public class AddrSpace {
 			// a separate page, we could set its
 			// pages to be read-only
 
-			// Zero out all of main memory
-//			Arrays.fill(Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize,
-//					(mPageTable[i].physicalPage + 1) * Machine.PageSize, (byte) 0);
+			// Every page has its own slot of our swap cluster. Pages outside
+			// the code and initialized data are zero-filled until they are
+			// first written back, and the cluster is only allocated then
+			mPages[i] = new Page(this, i);
+			mSwapUsers++;
+		}
+
+		// The code and initialized data are read from the executable the
+		// first time each page is touched
+		Debug.print('a', "Initializing code segment, at " + noffH.code.virtualAddr + ", size " + noffH.code.size);
+		mapSegment(executable, noffH.code);
+		mapSegment(executable, noffH.initData);
 
-			// Copy the code segment into memory
-			if ((i * Machine.PageSize) < (noffH.code.size + noffH.initData.size)) {
-				Debug.print('a',
-						"Initializing code segment, at " + noffH.code.virtualAddr + ", size " + noffH.code.size);
+		// Processes running the same executable share its code pages
+		shareText(executable, noffH.code);
+	}
 
-				// Create a temporary buffer to copy the code
-				byte[] bytes = new byte[Machine.PageSize];
+	/**
+	 * Replace the pages holding nothing but code with the executable's
+	 * shared text: the cached pages if another process is running the same
+	 * executable, otherwise our own, which are cached for the next. Text
+	 * pages have no swap slot, since they are never written back.
+	 * @param executable the executable file
+	 * @param code the code segment
+	 */
+	private void shareText(OpenFile executable, Segment code) {
+		int firstPage = (code.virtualAddr + Machine.PageSize - 1) / Machine.PageSize;
+		int endPage = (code.virtualAddr + code.size) / Machine.PageSize;
+		if (!(executable instanceof NachosOpenFile) || firstPage >= endPage) {
+			return;
+		}
+
+		mTextSector = ((NachosOpenFile) executable).getHeaderSector();
+		Page[] text = TextCache.attach(mTextSector);
+		if (text == null) {
+			text = new Page[endPage];
+			for (int vpn = firstPage; vpn < endPage; vpn++) {
+				text[vpn] = mPages[vpn];
+				text[vpn].mText = true;
+				text[vpn].mSwapOwner = null;
+			}
+			TextCache.insert(mTextSector, text);
+		}
 
-				// read the code into the buffer
-				executable.readAt(bytes, Machine.PageSize, noffH.code.inFileAddr + i * Machine.PageSize);
+		assert (text.length == endPage);
+		for (int vpn = firstPage; vpn < endPage; vpn++) {
+			if (mPages[vpn] != text[vpn]) {
+				mPages[vpn] = text[vpn];
+				text[vpn].mSharers.add(this);
+			}
+			mPageTable[vpn].readOnly = true;
+			mSwapUsers--;
+		}
+	}
 
-				//Write the executable into swap file
-				swapFile.writeAt(bytes, Machine.PageSize,i * Machine.PageSize);
+	/**
+	 * Back the pages a segment covers with the segment's bytes in the
+	 * executable. A page shared by the end of one segment and the start of
+	 * the next is read in a single piece, so the segments must follow each
+	 * other in the file too.
+	 * @param executable the executable file
+	 * @param segment the segment to map
+	 */
+	private void mapSegment(OpenFile executable, Segment segment) {
+		int end = segment.virtualAddr + segment.size;
+
+		for (int virtAddr = segment.virtualAddr; virtAddr < end;) {
+			Page page = mPages[virtAddr / Machine.PageSize];
+			int pageOffset = virtAddr % Machine.PageSize;
+			int count = Math.min(end - virtAddr, Machine.PageSize - pageOffset);
+			int fileAddr = segment.inFileAddr + virtAddr - segment.virtualAddr;
+
+			if (page.mImage == null) {
+				page.mImage = executable;
+				page.mImageOffset = fileAddr;
+				page.mImageStart = pageOffset;
+				page.mImageBytes = count;
+				page.mInSwap = false;
+			} else {
+				assert (page.mImageStart + page.mImageBytes == pageOffset
+						&& page.mImageOffset + page.mImageBytes == fileAddr);
+				page.mImageBytes += count;
 			}
+			virtAddr += count;
 		}
 	}
 
 	/**
+	 * Create the address space of a forked child. The child shares every
+	 * page of the parent copy-on-write: both page tables map the parent's
+	 * frames and swap slots read-only, and whichever process first writes a
+	 * page gets a private copy of it. Nothing is copied here, and the child
+	 * has no swap space until it writes back a page of its own.
 	 *
 	 * @param pToCopy
+	 *            the parent's address space
 	 */
 	public AddrSpace(AddrSpace pToCopy) {
+		// The parent is running: its TLB entries may hold dirty bits, and its
+		// pages are about to become read-only
+		flushTlb();
 
 		// Calculate the number of pages
 		mNumPages = pToCopy.mNumPages;
 
-		// check we're not trying to run anything too big --
-		// at least until we have virtual memory
-//		assert (mNumPages <= Machine.NumPhysPages);
-
-		//Create swap file per process
-		SwapSpace swapSpace = new SwapSpace();
-		OpenFile oldSwapFile = pToCopy.getSwapFile();
-		String swapFilename = swapSpace.createSpace(mNumPages * Machine.PageSize);
-		swapFile = swapSpace.open(swapFilename);
-
-
 		// first, set up the translation
 		mPageTable = new TranslationEntry[mNumPages];
+		mPages = new Page[mNumPages];
 		for (int i = 0; i < mNumPages; i++) {
+			TranslationEntry parentEntry = pToCopy.mPageTable[i];
+			Page page = pToCopy.mPages[i];
+
+			// The parent's unsaved changes now belong to both processes
+			page.collectDirty();
+			page.mSharers.add(this);
+			mPages[i] = page;
+
+			// Map the parent's frame, if it has one, read-only in both
 			mPageTable[i] = new TranslationEntry();
 			mPageTable[i].virtualPage = i;
-			mPageTable[i].physicalPage = -1;
-			mPageTable[i].valid = false;
+			mPageTable[i].physicalPage = parentEntry.physicalPage;
+			mPageTable[i].valid = parentEntry.valid;
 			mPageTable[i].use = false;
 			mPageTable[i].dirty = false;
-
-			// if the code segment was entirely on
-			mPageTable[i].readOnly = false;
-			// a separate page, we could set its
-			// pages to be read-only
-
-			// Zero out all of main memory
-//			Arrays.fill(Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize,
-//					(mPageTable[i].physicalPage + 1) * Machine.PageSize, (byte) 0);
-
-			byte[] bytes = new byte[Machine.PageSize];
-
-			// read the code into the buffer
-			oldSwapFile.readAt(bytes, Machine.PageSize,  i * Machine.PageSize);
-
-			//copy the file into swap file
-			swapFile.writeAt(bytes, Machine.PageSize,i * Machine.PageSize);
-
-			// Copy the buffer into the main memory
-//			System.arraycopy(Machine.mMainMemory, pToCopy.mPageTable[i].physicalPage * Machine.PageSize,
-//					Machine.mMainMemory, mPageTable[i].physicalPage * Machine.PageSize, Machine.PageSize);
+			mPageTable[i].readOnly = true;
+			parentEntry.readOnly = true;
 		}
 
+		mTextSector = pToCopy.mTextSector;
+		if (mTextSector != -1) {
+			TextCache.attach(mTextSector);
+		}
 	}
 
 	/**
@@ -241,6 +320,8 @@ public class AddrSpace {
 	 *
 	 **/
 	public void saveState() {//add by me for 2nd assignment
+		// The TLB only ever holds the running process's translations
+		flushTlb();
 		mPageTable = MMU.mPageTable;
 		mNumPages = MMU.mPageTableSize;
 	}
@@ -257,129 +338,707 @@ public class AddrSpace {
 	}
 
 	/**
-	 * Clear the mainMemory and free
+	 * Let go of the pages of an address space. Pages no other address space
+	 * shares have their frames cleared and freed; the others are left to the
+	 * remaining sharers. The swap cluster is freed once no page has its slot
+	 * there, and the text pages stay cached until the executable's last user
+	 * lets go of them.
 	 * @param space
 	 */
 	public static void cleanAddrSpcae(AddrSpace space) {
-		// Calculate the number of pages
-		int mNumPages = space.mNumPages;
-
-		//Clean the RAM, FIFO queue and memory
-		Iterator itr = pagesOnRAM.keySet().iterator();
-		List removePages= new LinkedList<String>();
-		while(itr.hasNext()){
-			String key = (String) itr.next();
-			if(Integer.parseInt(key.split(",")[0]) == JNachos.getCurrentProcess().getmProcessID()){
-				TranslationEntry entry = pagesOnRAM.get(key);
-				int phyPage = entry.physicalPage;
-				mFreeMap.clear(phyPage);
-				Arrays.fill(Machine.mMainMemory,  phyPage* Machine.PageSize,
-						(phyPage + 1) * Machine.PageSize, (byte) 0);
-				removePages.add(key);
+		if (MMU.mPageTable == space.mPageTable) {
+			flushTlb();
+		}
+		for (int vpn = 0; vpn < space.mNumPages; vpn++) {
+			Page page = space.mPages[vpn];
+			TranslationEntry entry = space.mPageTable[vpn];
+
+			if (entry.valid) {
+				page.mDirty |= entry.dirty;
+				entry.valid = false;
+			}
+			page.mSharers.remove(space);
+
+			if (page.mText) {
+				//Text stays cached until its last user goes, below
+			} else if (page.mSharers.isEmpty()) {
+				//Free the frame and clean it
+				if (page.mFrame != -1) {
+					Arrays.fill(Machine.mMainMemory, page.mFrame * Machine.PageSize,
+							(page.mFrame + 1) * Machine.PageSize, (byte) 0);
+					CoreMap.free(page.mFrame);
+					page.mFrame = -1;
+				}
+				page.mSwapOwner.releaseSlot();
+			} else if (!page.isShared()) {
+				//The one process left may write the page in place
+				page.mSharers.get(0).mPageTable[vpn].readOnly = false;
 			}
 		}
 
-		for(int i=0;i<removePages.size();i++){
-			pagesOnRAM.remove(removePages.get(i));
+		if (space.mTextSector != -1) {
+			TextCache.detach(space.mTextSector);
+		}
+		space.mReleased = true;
+		space.releaseSwapCluster();
+	}
+
+	/**
+	 * Note that a page no longer has its slot in our swap cluster.
+	 */
+	private void releaseSlot() {
+		mSwapUsers--;
+		releaseSwapCluster();
+	}
+
+	/**
+	 * Free the swap cluster once the address space is released and no page
+	 * has its slot there.
+	 */
+	private void releaseSwapCluster() {
+		if (mReleased && mSwapUsers == 0 && mSwapBase != -1) {
+			SwapSpace.free(mSwapBase, mNumPages);
+			mSwapBase = -1;
 		}
+	}
 
-		//Close the swap file
-		space.getSwapFile().closeFile();
-		space = null;
+	/**
+	 * Return the swap slot of one of our virtual pages, allocating the
+	 * cluster the first time a page is written back.
+	 * @param virtPage the virtual page number
+	 * @return the slot, or -1 if there is no swap space for the cluster
+	 */
+	private int swapSlot(int virtPage) {
+		if (mSwapBase == -1) {
+			mSwapBase = SwapSpace.allocate(mNumPages);
+			if (mSwapBase == -1) {
+				return -1;
+			}
+		}
+		return mSwapBase + virtPage;
 	}
 
+	/**
+	 * Whether the page in a frame can be evicted: it is clean, or it has a
+	 * swap slot to be written back to.
+	 * @param physicalAddr the frame
+	 */
+	private static boolean canEvict(int physicalAddr) {
+		Page page = CoreMap.getOwner(physicalAddr);
+		return !page.isDirty() || page.mSwapOwner.swapSlot(page.mVpn) != -1;
+	}
 
 	/**
-	 * Load the Page into RAM given the virtual address from swap space
-	 * @param virtAddr
+	 * Kill the running process, which needs a frame when the only page that
+	 * could be evicted is dirty and there is no swap space to write it to.
 	 */
-	public void loadPageFault(int virtAddr){
-		OpenFile swapFile = JNachos.getCurrentProcess().getProcessSwapFile();
+	private static void outOfSwap() {
+		NachosProcess process = JNachos.getCurrentProcess();
+		System.out.println("Out of swap space, killing " + process.getName());
+		Machine.writeRegister(4, -1);
+		process.finish();
+	}
 
-		byte[] bytes = new byte[Machine.PageSize];
+	/**
+	 * Handle a page fault exception: bring the page in if it is not in
+	 * memory and, with a TLB, load its translation there.
+	 * @param virtAddr the address that faulted
+	 * @return false if virtAddr is not in the address space
+	 */
+	public boolean pageFault(int virtAddr){
 		int virtPage = virtAddr/Machine.PageSize;
-		swapFile.readAt(bytes, Machine.PageSize, virtPage * Machine.PageSize);
-		swapPageInRAM(bytes, virtPage);
+		if(virtAddr < 0 || virtPage >= mNumPages){
+			return false;
+		}
 
+		if(!mPageTable[virtPage].valid){
+			loadPageFault(virtAddr);
+		}
+		if(MMU.mTlb != null){
+			loadTlbEntry(virtPage);
+		}
+		return true;
 	}
 
 	/**
-	 * Check whether RAM have free memory else invoke Page Replacement algorithm
-	 * @param bytes
-	 * @param virtPage
+	 * Load the translation of one of our pages into the TLB, in place of an
+	 * invalid entry or else the least recently used one.
+	 * @param virtPage the virtual page number, which must be mapped
 	 */
-	private void swapPageInRAM(byte[] bytes, int virtPage){
-		TranslationEntry pageEntry= mPageTable[virtPage];
-		int physicalAddr = mFreeMap.find();
+	private void loadTlbEntry(int virtPage){
+		assert(MMU.mPageTable == mPageTable && mPageTable[virtPage].valid);
+		int slot = 0;
+		for(int i = 0; i < MMU.mTlb.length; i++){
+			if(!MMU.mTlb[i].valid){
+				slot = i;
+				break;
+			}
+			if(MMU.mTlbLastUse[i] < MMU.mTlbLastUse[slot]){
+				slot = i;
+			}
+		}
+		writeBackTlbEntry(slot);
+
+		TranslationEntry pageEntry = mPageTable[virtPage];
+		TranslationEntry tlbEntry = MMU.mTlb[slot];
+		tlbEntry.virtualPage = virtPage;
+		tlbEntry.physicalPage = pageEntry.physicalPage;
+		tlbEntry.readOnly = pageEntry.readOnly;
+		tlbEntry.use = false;
+		tlbEntry.dirty = false;
+		tlbEntry.valid = true;
+	}
 
-		if(physicalAddr != -1){
-			System.arraycopy(bytes, 0, Machine.mMainMemory, physicalAddr * Machine.PageSize,
-					Machine.PageSize);
-		}else{
-			String evictPage = findEvictPage();
-			TranslationEntry evictPageEntry = pagesOnRAM.get(evictPage);
-			pagesOnRAM.remove(evictPage);
+	/**
+	 * Move the use and dirty bits a TLB entry has gathered into the running
+	 * process's page table, where paging decisions are made.
+	 * @param slot the TLB entry
+	 */
+	private static void writeBackTlbEntry(int slot){
+		TranslationEntry tlbEntry = MMU.mTlb[slot];
+		if(tlbEntry.valid){
+			TranslationEntry pageEntry = MMU.mPageTable[tlbEntry.virtualPage];
+			pageEntry.use |= tlbEntry.use;
+			pageEntry.dirty |= tlbEntry.dirty;
+			tlbEntry.use = false;
+			tlbEntry.dirty = false;
+		}
+	}
 
-			physicalAddr = evictPageEntry.physicalPage;
-			evictPageEntry.valid = false;
-			mFreeMap.clear(physicalAddr);
+	/**
+	 * Bring the running process's page table up to date with the use and
+	 * dirty bits in the TLB. Called before those bits are looked at.
+	 */
+	static void syncTlb(){
+		if(MMU.mTlb != null){
+			for(int slot = 0; slot < MMU.mTlb.length; slot++){
+				writeBackTlbEntry(slot);
+			}
+		}
+	}
 
-			if(evictPageEntry.dirty){
-				int processID = Integer.parseInt(evictPage.split(",")[0]);
-				writePageToSwap(processID, evictPageEntry);
+	/**
+	 * Empty the TLB, saving its use and dirty bits in the page table.
+	 */
+	private static void flushTlb(){
+		if(MMU.mTlb == null){
+			return;
+		}
+		boolean wasEmpty = true;
+		for(int slot = 0; slot < MMU.mTlb.length; slot++){
+			wasEmpty &= !MMU.mTlb[slot].valid;
+			writeBackTlbEntry(slot);
+			MMU.mTlb[slot].valid = false;
+		}
+		if(!wasEmpty){
+			Statistics.numTlbFlushes++;
+		}
+	}
+
+	/**
+	 * Drop the TLB entry for one of our pages, if we are running and it is
+	 * there, before its translation is changed.
+	 * @param virtPage the virtual page number
+	 */
+	void invalidateTlbEntry(int virtPage){
+		if(MMU.mTlb == null || MMU.mPageTable != mPageTable){
+			return;
+		}
+		for(int slot = 0; slot < MMU.mTlb.length; slot++){
+			if(MMU.mTlb[slot].valid && MMU.mTlb[slot].virtualPage == virtPage){
+				writeBackTlbEntry(slot);
+				MMU.mTlb[slot].valid = false;
 			}
+		}
+	}
 
-			System.arraycopy(bytes, 0, Machine.mMainMemory, physicalAddr * Machine.PageSize,
-						Machine.PageSize);
+	/**
+	 * Set how many pages are read in around a page fault.
+	 * @param pPages the size of the groups of pages read together
+	 */
+	public static void setFaultAround(int pPages){
+		assert(pPages >= 1);
+		mFaultAround = pPages;
+	}
 
+	/**
+	 * Returns how many pages are read in around a page fault.
+	 */
+	public static int getFaultAround(){
+		return mFaultAround;
+	}
 
+	/**
+	 * Load the Page into RAM given the virtual address from swap space. A
+	 * shared page already brought in by another process is just mapped.
+	 *
+	 * Neighbouring pages in the same aligned group of mFaultAround pages that
+	 * follow on from the faulting page in swap or in the executable are read
+	 * with it, in the same disk request, as long as there are free frames for
+	 * them. They are mapped with their use bit clear, so that the replacement
+	 * policy takes them back first if they are never touched.
+	 * @param virtAddr
+	 */
+	public void loadPageFault(int virtAddr){
+		int virtPage = virtAddr/Machine.PageSize;
+		TranslationEntry pageEntry= mPageTable[virtPage];
+		Page page = mPages[virtPage];
+		Statistics.numPageFaults++;
+
+		//Another process may be reading the page in or writing it back
+		page.waitUntilIdle();
+
+		if(page.mFrame == -1){
+			//The frames stay pinned while the pages are read straight into them
+			page.mBusy = true;
+			int groupStart = virtPage - virtPage % mFaultAround;
+			Page[] pages = new Page[mFaultAround];
+			int[] frames = new int[mFaultAround];
+			pages[virtPage - groupStart] = page;
+			frames[virtPage - groupStart] = findFreeFrame();
+			if(frames[virtPage - groupStart] == -1){
+				page.setIdle();
+				outOfSwap();
+			}
+
+			//Extend the run forwards first, since that is the way code and scans go
+			int last = virtPage;
+			while(last + 1 < Math.min(groupStart + mFaultAround, mNumPages)
+					&& continuesRun(page, mPages[last + 1]) && takeFrame(mPages[last + 1], pages, frames, last + 1 - groupStart)){
+				last++;
+			}
+			int first = virtPage;
+			while(first > groupStart && continuesRun(page, mPages[first - 1])
+					&& takeFrame(mPages[first - 1], pages, frames, first - 1 - groupStart)){
+				first--;
+			}
+			if(last > virtPage || first < virtPage){
+				PageoutDaemon.frameTaken();
+			}
+
+			readPages(pages, frames, first - groupStart, last - first + 1);
+
+			int pid = JNachos.getCurrentProcess().getmProcessID();
+			for(int i = first - groupStart; i <= last - groupStart; i++){
+				pages[i].mFrame = frames[i];
+				CoreMap.map(frames[i], pages[i], pid, pages[i].mVpn);
+				//Only now may a process waiting for the page map it
+				pages[i].setIdle();
+				if(pages[i] != page){
+					Statistics.numPagesReadAround++;
+					TranslationEntry entry = mPageTable[pages[i].mVpn];
+					entry.physicalPage = frames[i];
+					entry.valid = true;
+					entry.use = false;
+					entry.dirty = false;
+					entry.readOnly = pages[i].isReadOnly();
+				}
+			}
 		}
-		pageEntry.physicalPage = physicalAddr;
+
+		pageEntry.physicalPage = page.mFrame;
 		pageEntry.valid = true;
-		mFreeMap.mark(physicalAddr);
-		pagesOnRAM.put(""+JNachos.getCurrentProcess().getmProcessID()+","+pageEntry.virtualPage,pageEntry);
+		pageEntry.use = true;
+		pageEntry.dirty = false;
+		pageEntry.readOnly = page.isReadOnly();
+	}
+
+	/**
+	 * Whether a neighbour of a faulting page can be read in the same disk
+	 * request: it is not resident, and its contents come next in the same
+	 * swap cluster or at the matching place in the same executable.
+	 * @param pPage the faulting page
+	 * @param pNeighbour the neighbouring page
+	 */
+	private static boolean continuesRun(Page pPage, Page pNeighbour){
+		if(pNeighbour.mFrame != -1 || pNeighbour.mBusy){
+			return false;
+		}
+		if(pPage.mInSwap){
+			return pNeighbour.mInSwap && pNeighbour.mSwapOwner == pPage.mSwapOwner;
+		}
+		return pPage.mImage != null && !pNeighbour.mInSwap && pNeighbour.mImage == pPage.mImage
+				&& pNeighbour.mImageOffset - pNeighbour.mImageStart
+						== pPage.mImageOffset - pPage.mImageStart + (pNeighbour.mVpn - pPage.mVpn) * Machine.PageSize;
 	}
 
 	/**
-	 * If RAM is full and evict page dirty bit is on, then copy the content to swap space
-	 * @param processID
-	 * @param pageEntry
+	 * Take a free frame for a neighbouring page, without evicting anything,
+	 * and mark the page busy until it has been read in.
+	 * @param pNeighbour the neighbouring page
+	 * @param pPages the pages being read, indexed from the start of the group
+	 * @param pFrames the frames they are read into
+	 * @param pIndex where the neighbour is in the group
+	 * @return false if there is no free frame
 	 */
-	private void writePageToSwap(int processID, TranslationEntry pageEntry){
-		NachosProcess currentProcess = JNachos.getCurrentProcess();
-		OpenFile swapFile;
-		if(processID == currentProcess.getmProcessID()){
-			swapFile = JNachos.getCurrentProcess().getProcessSwapFile();
+	private static boolean takeFrame(Page pNeighbour, Page[] pPages, int[] pFrames, int pIndex){
+		int frame = CoreMap.allocate();
+		if(frame == -1){
+			return false;
+		}
+		Machine.invalidateDecoded(frame);
+		pNeighbour.mBusy = true;
+		pPages[pIndex] = pNeighbour;
+		pFrames[pIndex] = frame;
+		return true;
+	}
+
+	/**
+	 * Fill frames with a run of pages: from their swap slots once they have
+	 * been written back there, otherwise from the executable. Pages and parts
+	 * of pages outside the code and initialized data are just cleared, with no
+	 * disk access. However many pages there are, they are read with one
+	 * request.
+	 * @param pPages the pages
+	 * @param pFrames the frames to read them into
+	 * @param pFirst the index of the first page of the run
+	 * @param pCount the number of pages in the run
+	 */
+	private static void readPages(Page[] pPages, int[] pFrames, int pFirst, int pCount){
+		Page page = pPages[pFirst];
+
+		if(page.mInSwap){
+			byte[] buffer = new byte[pCount * Machine.PageSize];
+			SwapSpace.read(page.mSwapOwner.swapSlot(page.mVpn), pCount, buffer, 0);
+			for(int i = 0; i < pCount; i++){
+				System.arraycopy(buffer, i * Machine.PageSize, Machine.mMainMemory,
+						pFrames[pFirst + i] * Machine.PageSize, Machine.PageSize);
+			}
+			return;
+		}
+
+		List<IOVector> vectors = new ArrayList<IOVector>(pCount);
+		for(int i = pFirst; i < pFirst + pCount; i++){
+			int frameStart = pFrames[i] * Machine.PageSize;
+			Arrays.fill(Machine.mMainMemory, frameStart, frameStart + Machine.PageSize, (byte) 0);
+			if(pPages[i].mImage != null){
+				vectors.add(new IOVector(Machine.mMainMemory, frameStart + pPages[i].mImageStart,
+						pPages[i].mImageOffset, pPages[i].mImageBytes));
+			}
+		}
+		if(!vectors.isEmpty()){
+			page.mImage.readv(vectors);
+		}
+	}
+
+	/**
+	 * Give the running process its own copy of a shared or text page it has
+	 * tried to write. The copy is made in memory and only reaches our swap slot if it
+	 * is evicted. A shared page that moves to another slot takes its data
+	 * with it the next time it is written back.
+	 * @param virtAddr the address written
+	 */
+	public void copyOnWrite(int virtAddr){
+		int virtPage = virtAddr/Machine.PageSize;
+		TranslationEntry pageEntry = mPageTable[virtPage];
+		Page page = mPages[virtPage];
+
+		//The translation changes whichever way this goes
+		invalidateTlbEntry(virtPage);
+
+		//Keep the shared frame in place while a frame for the copy is found
+		CoreMap.pin(page.mFrame);
+		int physicalAddr = page.isReadOnly() ? findFreeFrame() : -1;
+		CoreMap.unpin(page.mFrame);
+		if(physicalAddr == -1 && page.isReadOnly()){
+			outOfSwap();
+		}
+
+		//The other sharers went away in the meantime
+		if(!page.isReadOnly()){
+			if(physicalAddr != -1){
+				CoreMap.free(physicalAddr);
+			}
+			pageEntry.readOnly = false;
+			return;
+		}
+
+		Statistics.numCopyOnWrites++;
+		System.arraycopy(Machine.mMainMemory, page.mFrame * Machine.PageSize, Machine.mMainMemory,
+				physicalAddr * Machine.PageSize, Machine.PageSize);
+		page.mSharers.remove(this);
+
+		//The copy goes in our own slot; if that is where the shared page
+		//lives, move it to a slot of one of the processes still sharing it
+		Page copy = new Page(this, virtPage);
+		copy.mFrame = physicalAddr;
+		copy.mDirty = true;
+		if(page.mSwapOwner == this){
+			page.mSwapOwner = page.mSharers.get(0);
+			page.mSwapOwner.mSwapUsers++;
+			page.mDirty |= page.mInSwap;
+			page.mInSwap = false;
 		}else{
-			NachosProcess process = NachosProcess.getProcessOnID(processID);
-			swapFile = process.getProcessSwapFile();
+			mSwapUsers++;
+		}
+		if(!page.isReadOnly()){
+			page.mSharers.get(0).mPageTable[virtPage].readOnly = false;
 		}
+		mPages[virtPage] = copy;
 
-		int virtAddr = pageEntry.virtualPage;
-		int physicalAddr = pageEntry.physicalPage;
+		pageEntry.physicalPage = physicalAddr;
+		pageEntry.readOnly = false;
+		pageEntry.use = true;
+		pageEntry.dirty = false;
+		CoreMap.map(physicalAddr, copy, JNachos.getCurrentProcess().getmProcessID(), virtPage);
+	}
 
-		byte[] copyPage = new byte[Machine.PageSize];
-		System.arraycopy(Machine.mMainMemory, physicalAddr * Machine.PageSize, copyPage, 0,
-				Machine.PageSize);
+	/**
+	 * Take a free frame, evicting a page if RAM is full
+	 * @return the frame, pinned, or -1 if the victim is dirty and there is no
+	 * swap space for it
+	 */
+	private static int findFreeFrame(){
+		int physicalAddr = CoreMap.allocate();
+
+		while(physicalAddr == -1){
+			int victim = CoreMap.chooseVictim();
+			if(victim == -1){
+				//Every frame is being filled or written back, wait for one
+				CoreMap.waitForFrame();
+				physicalAddr = CoreMap.allocate();
+			}else if(!canEvict(victim)){
+				return -1;
+			}else{
+				evictPage(victim);
+				physicalAddr = victim;
+			}
+		}
+
+		PageoutDaemon.frameTaken();
+		Machine.invalidateDecoded(physicalAddr);
+		return physicalAddr;
+	}
 
-		swapFile.writeAt(copyPage, Machine.PageSize,virtAddr * Machine.PageSize);
+	/**
+	 * Evict pages until pCount frames have been freed or no page can be
+	 * evicted, writing the dirty ones back together. Used by the pageout
+	 * daemon.
+	 * @param pCount the number of frames wanted
+	 * @return the number of frames freed
+	 */
+	static int reclaimFrames(int pCount){
+		int[] frames = new int[pCount];
+		Page[] dirtyPages = new Page[pCount];
+		int[] dirtyFrames = new int[pCount];
+		int numFrames = 0;
+		int numDirty = 0;
+
+		while(numFrames < pCount){
+			int victim = CoreMap.chooseVictim();
+			if(victim == -1 || !canEvict(victim)){
+				break;
+			}
 
+			Page page = unmapPage(victim);
+			frames[numFrames++] = victim;
+			if(page.mDirty){
+				dirtyPages[numDirty] = page;
+				dirtyFrames[numDirty++] = victim;
+			}
+		}
+
+		writeBack(dirtyPages, dirtyFrames, numDirty);
+		for(int i = 0; i < numFrames; i++){
+			CoreMap.free(frames[i]);
+		}
+		return numFrames;
+	}
+
+	/**
+	 * Unmap the page in a frame from every process sharing it, copying it to
+	 * its swap slot if it is dirty. The frame is left pinned for the caller
+	 * to reuse.
+	 * @param physicalAddr the frame to evict
+	 */
+	private static void evictPage(int physicalAddr){
+		Page page = unmapPage(physicalAddr);
+
+		if(page.mDirty){
+			writeBack(new Page[] { page }, new int[] { physicalAddr }, 1);
+		}
+	}
+
+	/**
+	 * Pin a frame and unmap its page from every process sharing it. A dirty
+	 * page stays busy until it has been written back.
+	 * @param physicalAddr the frame
+	 * @return the page that was in the frame
+	 */
+	private static Page unmapPage(int physicalAddr){
+		Page page = CoreMap.getOwner(physicalAddr);
+
+		CoreMap.pin(physicalAddr);
+		page.invalidate();
+		page.collectDirty();
+		page.mFrame = -1;
+		page.mBusy = page.mDirty;
+		Statistics.numPageEvictions++;
+		return page;
+	}
+
+	/**
+	 * Write unmapped dirty pages back from their frames to their swap slots.
+	 * The pages are put in slot order and each run of neighbouring slots is
+	 * written with a single disk request.
+	 * @param pages the pages
+	 * @param frames the frame holding each page
+	 * @param count the number of pages
+	 */
+	private static void writeBack(Page[] pages, int[] frames, int count){
+		int[] slots = new int[count];
+
+		//Insertion sort by slot, there are only ever a few pages
+		for(int i = 0; i < count; i++){
+			Page page = pages[i];
+			int frame = frames[i];
+			int slot = page.mSwapOwner.swapSlot(page.mVpn);
+			assert(slot != -1);
+			int j = i;
+			for(; j > 0 && slots[j - 1] > slot; j--){
+				pages[j] = pages[j - 1];
+				frames[j] = frames[j - 1];
+				slots[j] = slots[j - 1];
+			}
+			pages[j] = page;
+			frames[j] = frame;
+			slots[j] = slot;
+		}
+
+		for(int first = 0; first < count;){
+			int last = first;
+			while(last + 1 < count && slots[last + 1] == slots[last] + 1){
+				last++;
+			}
+
+			int runLength = last - first + 1;
+			byte[] buffer = new byte[runLength * Machine.PageSize];
+			for(int i = 0; i < runLength; i++){
+				System.arraycopy(Machine.mMainMemory, frames[first + i] * Machine.PageSize, buffer,
+						i * Machine.PageSize, Machine.PageSize);
+			}
+			SwapSpace.write(slots[first], runLength, buffer, 0);
+
+			for(int i = first; i <= last; i++){
+				pages[i].mDirty = false;
+				pages[i].mInSwap = true;
+				pages[i].setIdle();
+				Statistics.numPageWritebacks++;
+			}
+			first = last + 1;
+		}
 	}
 
 	/**
-	 * Page Replace Algorithm: FIFO
-	 * @return
+	 * Translate a user virtual address of the running process, bringing its
+	 * page into memory first if needed.
+	 * @param virtAddr the user address
+	 * @param writing whether the kernel is about to write there
+	 * @return the physical address, or -1 if virtAddr is not a valid user address
 	 */
-	private String findEvictPage(){
-		String key = pagesOnRAM.keySet().iterator().next();
-		return key;
+	private int translateUser(int virtAddr, boolean writing) {
+		assert (MMU.mPageTable == mPageTable);
+		int physAddr = MMU.translateForKernel(virtAddr, 1, writing);
+		ExceptionType exception = MMU.exceptionOf(physAddr);
+
+		while (exception == ExceptionType.PageFaultException || exception == ExceptionType.ReadOnlyException) {
+			if (exception == ExceptionType.PageFaultException) {
+				if (!pageFault(virtAddr)) {
+					return -1;
+				}
+			} else {
+				copyOnWrite(virtAddr);
+			}
+			physAddr = MMU.translateForKernel(virtAddr, 1, writing);
+			exception = MMU.exceptionOf(physAddr);
+		}
+		return exception == ExceptionType.NoException ? physAddr : -1;
+	}
+
+	/**
+	 * Returns the size of the address space in bytes; no valid user buffer is
+	 * larger.
+	 *
+	 * @return the number of bytes of virtual memory.
+	 */
+	public int getSize() {
+		return mNumPages * Machine.PageSize;
+	}
+
+	/**
+	 * Copy a range of user memory into a kernel buffer, one page at a time.
+	 * @param virtAddr the user address to copy from
+	 * @param buffer the kernel buffer
+	 * @param offset the index in buffer to copy to
+	 * @param length the number of bytes to copy
+	 * @return true if the whole range was valid user memory
+	 */
+	public boolean copyIn(int virtAddr, byte[] buffer, int offset, int length) {
+		for (int done = 0; done < length;) {
+			int physAddr = translateUser(virtAddr + done, false);
+			if (physAddr < 0) {
+				return false;
+			}
+			int count = Math.min(length - done, Machine.PageSize - (virtAddr + done) % Machine.PageSize);
+			System.arraycopy(Machine.mMainMemory, physAddr, buffer, offset + done, count);
+			done += count;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy a kernel buffer into a range of user memory, one page at a time.
+	 * @param buffer the kernel buffer
+	 * @param offset the index in buffer to copy from
+	 * @param virtAddr the user address to copy to
+	 * @param length the number of bytes to copy
+	 * @return true if the whole range was valid user memory
+	 */
+	public boolean copyOut(byte[] buffer, int offset, int virtAddr, int length) {
+		for (int done = 0; done < length;) {
+			int physAddr = translateUser(virtAddr + done, true);
+			if (physAddr < 0) {
+				return false;
+			}
+			int count = Math.min(length - done, Machine.PageSize - (virtAddr + done) % Machine.PageSize);
+			System.arraycopy(buffer, offset + done, Machine.mMainMemory, physAddr, count);
+			Machine.invalidateDecoded(physAddr / Machine.PageSize);
+			done += count;
+		}
+		return true;
+	}
+
+	/**
+	 * Read a null-terminated string out of user memory, scanning a page at a time.
+	 * @param virtAddr the user address of the first character
+	 * @param maxLength the longest string accepted
+	 * @return the string, or null if it runs into invalid memory or past maxLength
+	 */
+	public String readUserString(int virtAddr, int maxLength) {
+		StringBuilder string = new StringBuilder();
+
+		while (string.length() < maxLength) {
+			int physAddr = translateUser(virtAddr, false);
+			if (physAddr < 0) {
+				return null;
+			}
+			int pageEnd = physAddr - virtAddr % Machine.PageSize + Machine.PageSize;
+			for (; physAddr < pageEnd && string.length() < maxLength; physAddr++, virtAddr++) {
+				if (Machine.mMainMemory[physAddr] == 0) {
+					return string.toString();
+				}
+				string.append((char) Machine.mMainMemory[physAddr]);
+			}
+		}
+		return null;
 	}
 
 	/**
-	 * Return the swap file associate to each process
-	 * @return
+	 * Return the page table entry of a virtual page
+	 * @param virtPage the virtual page number
+	 * @return the entry
 	 */
-	public OpenFile getSwapFile(){
-		return this.swapFile;
+	TranslationEntry getPageTableEntry(int virtPage){
+		return mPageTable[virtPage];
 	}
 }
\ No newline at end of file
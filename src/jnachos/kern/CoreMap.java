@@ -0,0 +1,402 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import jnachos.machine.*;
+import jnachos.kern.sync.Semaphore;
+
+/**
+ * The core map is an inverted page table: one entry per physical frame,
+ * recording which page lives there. A page shared copy-on-write by several
+ * address spaces occupies a single frame. The map is kept in primitive
+ * arrays indexed by frame number, so finding, filling and freeing a frame
+ * never allocates.
+ *
+ * A frame is FREE, INUSE (holding a mapped page) or BUSY (being filled or
+ * written back). BUSY frames are pinned: they are neither handed out nor
+ * chosen for eviction, so a process that sleeps on the disk in the middle
+ * of a page-in or page-out cannot have its frame taken from under it. A
+ * process that finds every frame BUSY sleeps until one is freed or unpinned.
+ */
+public class CoreMap {
+	/** The frame holds nothing. */
+	public static final int FREE = 0;
+
+	/** The frame holds a mapped page. */
+	public static final int INUSE = 1;
+
+	/** The frame is pinned while I/O on it is in progress. */
+	public static final int BUSY = 2;
+
+	/** The state of each frame. */
+	private static int[] mState = new int[Machine.NumPhysPages];
+
+	/** The process id owning the page in each frame. */
+	private static int[] mOwnerPid = new int[Machine.NumPhysPages];
+
+	/** The virtual page number held in each frame. */
+	private static int[] mVpn = new int[Machine.NumPhysPages];
+
+	/** The page held in each frame. */
+	private static Page[] mOwner = new Page[Machine.NumPhysPages];
+
+	/** How many times each BUSY frame has been pinned in place. */
+	private static int[] mPinCount = new int[Machine.NumPhysPages];
+
+	/** When each frame was last filled, for FIFO replacement. */
+	private static long[] mLoadTime = new long[Machine.NumPhysPages];
+
+	/** The value of mLoadTime for the next frame filled. */
+	private static long mNextLoadTime = 0;
+
+	/** When the page in each frame was last seen in use, for WSCLOCK. */
+	private static long[] mLastUse = new long[Machine.NumPhysPages];
+
+	/**
+	 * A page unused for longer than this many ticks is outside its process's
+	 * working set.
+	 */
+	public static final int WorkingSetWindow = 2000;
+
+	/** The replacement policy in force. */
+	private static ReplacementPolicy mPolicy = ReplacementPolicy.FIFO;
+
+	/** The next frame the clock hand will look at. */
+	private static int mHand = 0;
+
+	/** Stack of free frame numbers. */
+	private static int[] mFreeFrames = new int[Machine.NumPhysPages];
+
+	/** The number of frames on the free stack. */
+	private static int mNumFree;
+
+	/** The number of processes waiting for a frame to stop being BUSY. */
+	private static int mFrameWaiters;
+
+	/** What those processes sleep on. */
+	private static Semaphore mFrameReleased = new Semaphore("frame released", 0);
+
+	static {
+		for (int frame = 0; frame < Machine.NumPhysPages; frame++) {
+			mFreeFrames[mNumFree++] = Machine.NumPhysPages - 1 - frame;
+		}
+	}
+
+	/**
+	 * Take a free frame. The frame comes back BUSY, and must be passed to
+	 * map() or free() once its contents are in place.
+	 *
+	 * @return a frame number, or -1 if every frame is in use.
+	 */
+	public static int allocate() {
+		if (mNumFree == 0) {
+			return -1;
+		}
+		int frame = mFreeFrames[--mNumFree];
+		assert (mState[frame] == FREE);
+		mState[frame] = BUSY;
+		return frame;
+	}
+
+	/**
+	 * Record that a BUSY frame now holds a page, and unpin it.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @param pOwner
+	 *            the page now in the frame.
+	 * @param pPid
+	 *            the id of the process that faulted the page in.
+	 * @param pVpn
+	 *            the virtual page number of the page.
+	 */
+	static void map(int pFrame, Page pOwner, int pPid, int pVpn) {
+		assert (mState[pFrame] == BUSY);
+		mState[pFrame] = INUSE;
+		mPinCount[pFrame] = 0;
+		mOwner[pFrame] = pOwner;
+		mOwnerPid[pFrame] = pPid;
+		mVpn[pFrame] = pVpn;
+		mLoadTime[pFrame] = mNextLoadTime++;
+		mLastUse[pFrame] = Statistics.totalTicks;
+		frameReleased();
+	}
+
+	/**
+	 * Pin an in-use frame so that its page can be written back or replaced.
+	 * The frame keeps its owner until it is mapped again or freed. A frame
+	 * pinned by several processes at once stays BUSY until each has unpinned
+	 * it.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void pin(int pFrame) {
+		assert (mState[pFrame] == INUSE || mPinCount[pFrame] > 0);
+		mState[pFrame] = BUSY;
+		mPinCount[pFrame]++;
+	}
+
+	/**
+	 * Unpin a frame pinned by pin() whose page stayed in place.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void unpin(int pFrame) {
+		assert (mState[pFrame] == BUSY && mPinCount[pFrame] > 0);
+		if (--mPinCount[pFrame] == 0) {
+			mState[pFrame] = INUSE;
+			frameReleased();
+		}
+	}
+
+	/**
+	 * Return a frame to the free stack.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void free(int pFrame) {
+		assert (mState[pFrame] != FREE);
+		mState[pFrame] = FREE;
+		mPinCount[pFrame] = 0;
+		mOwner[pFrame] = null;
+		mFreeFrames[mNumFree++] = pFrame;
+		frameReleased();
+	}
+
+	/**
+	 * Sleep until some frame is freed, mapped or unpinned. Called when every
+	 * frame is BUSY, so that none can be allocated or chosen for eviction.
+	 */
+	static void waitForFrame() {
+		mFrameWaiters++;
+		mFrameReleased.P();
+	}
+
+	/**
+	 * Wake the processes waiting for a frame, now that one is no longer BUSY.
+	 */
+	private static void frameReleased() {
+		for (; mFrameWaiters > 0; mFrameWaiters--) {
+			mFrameReleased.V();
+		}
+	}
+
+	/**
+	 * Select the replacement policy.
+	 *
+	 * @param pPolicy
+	 *            the policy to use from now on.
+	 */
+	public static void setPolicy(ReplacementPolicy pPolicy) {
+		mPolicy = pPolicy;
+	}
+
+	/**
+	 * Returns the replacement policy in force.
+	 *
+	 * @return the policy.
+	 */
+	public static ReplacementPolicy getPolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Choose the page to replace, according to the replacement policy.
+	 *
+	 * @return the victim frame, or -1 if every frame is pinned.
+	 */
+	public static int chooseVictim() {
+		// The policies go by the use and dirty bits in the page tables
+		AddrSpace.syncTlb();
+
+		switch (mPolicy) {
+		case CLOCK:
+			return chooseClock();
+		case ENHANCED_CLOCK:
+			return chooseEnhancedClock();
+		case WSCLOCK:
+			return chooseWSClock();
+		default:
+			return chooseFIFO();
+		}
+	}
+
+	/**
+	 * FIFO: the in-use frame filled longest ago.
+	 */
+	private static int chooseFIFO() {
+		int victim = -1;
+		for (int frame = 0; frame < Machine.NumPhysPages; frame++) {
+			if (mState[frame] == INUSE && (victim == -1 || mLoadTime[frame] < mLoadTime[victim])) {
+				victim = frame;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Second chance: sweep the hand, clearing use bits, until it reaches an
+	 * in-use frame whose use bit is already clear. Two turns of the hand are
+	 * always enough.
+	 */
+	private static int chooseClock() {
+		for (int step = 0; step < 2 * Machine.NumPhysPages; step++) {
+			int frame = advanceHand();
+			if (mState[frame] != INUSE) {
+				continue;
+			}
+
+			if (!mOwner[frame].isUsed()) {
+				return frame;
+			}
+			mOwner[frame].clearUse();
+		}
+		return -1;
+	}
+
+	/**
+	 * Enhanced second chance over the (use, dirty) classes. Each round first
+	 * sweeps for an unused clean page without touching anything, then sweeps
+	 * for an unused dirty page, clearing use bits on the way, so the next
+	 * round finds what was skipped.
+	 */
+	private static int chooseEnhancedClock() {
+		for (int round = 0; round < 2; round++) {
+			for (int step = 0; step < Machine.NumPhysPages; step++) {
+				int frame = advanceHand();
+				if (mState[frame] == INUSE) {
+					if (!mOwner[frame].isUsed() && !mOwner[frame].isDirty()) {
+						return frame;
+					}
+				}
+			}
+
+			for (int step = 0; step < Machine.NumPhysPages; step++) {
+				int frame = advanceHand();
+				if (mState[frame] == INUSE) {
+					if (!mOwner[frame].isUsed()) {
+						return frame;
+					}
+					mOwner[frame].clearUse();
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * WSClock: the hand clears use bits, stamping those pages as used now.
+	 * The first page found outside the working set window that is clean is
+	 * taken. Failing that, the first old dirty page passed is taken, and
+	 * failing that the page unused for longest.
+	 */
+	private static int chooseWSClock() {
+		int oldDirty = -1;
+		int oldest = -1;
+
+		for (int step = 0; step < Machine.NumPhysPages; step++) {
+			int frame = advanceHand();
+			if (mState[frame] != INUSE) {
+				continue;
+			}
+
+			Page page = mOwner[frame];
+			if (page.isUsed()) {
+				page.clearUse();
+				mLastUse[frame] = Statistics.totalTicks;
+			} else if (Statistics.totalTicks - mLastUse[frame] > WorkingSetWindow) {
+				if (!page.isDirty()) {
+					return frame;
+				}
+				if (oldDirty == -1) {
+					oldDirty = frame;
+				}
+			}
+			if (oldest == -1 || mLastUse[frame] < mLastUse[oldest]) {
+				oldest = frame;
+			}
+		}
+		return oldDirty != -1 ? oldDirty : oldest;
+	}
+
+	/**
+	 * Returns the frame under the clock hand and moves the hand on.
+	 */
+	private static int advanceHand() {
+		int frame = mHand;
+		mHand = (mHand + 1) % Machine.NumPhysPages;
+		return frame;
+	}
+
+	/**
+	 * Returns the state of a frame.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return FREE, INUSE or BUSY.
+	 */
+	public static int getState(int pFrame) {
+		return mState[pFrame];
+	}
+
+	/**
+	 * Returns the page in a frame.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return the page, or null if the frame is free.
+	 */
+	static Page getOwner(int pFrame) {
+		return mOwner[pFrame];
+	}
+
+	/**
+	 * Returns the number of address spaces mapping the page in a frame. A
+	 * text page may stay resident with no users until its executable is
+	 * dropped from the text cache.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return the number of sharers of the page, or 0 if the frame is free.
+	 */
+	public static int getRefCount(int pFrame) {
+		return mOwner[pFrame] == null ? 0 : mOwner[pFrame].mSharers.size();
+	}
+
+	/**
+	 * Returns the id of the process owning the page in a frame.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return the owner's process id.
+	 */
+	public static int getOwnerPid(int pFrame) {
+		return mOwnerPid[pFrame];
+	}
+
+	/**
+	 * Returns the virtual page number held in a frame.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 * @return the virtual page number.
+	 */
+	public static int getVpn(int pFrame) {
+		return mVpn[pFrame];
+	}
+
+	/**
+	 * Returns the number of free frames.
+	 *
+	 * @return the number of frames on the free stack.
+	 */
+	public static int getNumFree() {
+		return mNumFree;
+	}
+}
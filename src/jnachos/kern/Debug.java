@@ -7,6 +7,8 @@
  **/
 package jnachos.kern;
 
+import java.util.function.Supplier;
+
 /**
  * Miscellaneous useful definitions, including debugging routines.
  *
@@ -22,9 +24,16 @@ package jnachos.kern;
  */
 public abstract class Debug {
 	/**
-	 * The set of flags used for debugging.
+	 * The flags turned on, as a set of bits indexed by character: bit c % 64 of
+	 * word c / 64, for the characters below 128. Worked out once, when the
+	 * flags are given, so that checking a flag costs a load and a mask.
 	 */
-	private static String mFlags;
+	private static final long[] mFlags = new long[2];
+
+	/**
+	 * Whether all debug messages are on ('+').
+	 */
+	private static boolean mAll;
 
 	/**
 	 * Initializes the Debugging in Nachos.
@@ -33,7 +42,23 @@ public abstract class Debug {
 	 *            the set of flags for debugging
 	 */
 	public static void debugInit(String pDebugArgs) {
-		mFlags = pDebugArgs;
+		mFlags[0] = mFlags[1] = 0;
+		mAll = false;
+		if (pDebugArgs == null) {
+			return;
+		}
+
+		for (int i = 0; i < pDebugArgs.length(); i++) {
+			char flag = pDebugArgs.charAt(i);
+
+			// If all flags have been turned on
+			if (flag == '+') {
+				mAll = true;
+				mFlags[0] = mFlags[1] = -1L;
+			} else if (flag < 128) {
+				mFlags[flag >> 6] |= 1L << flag;
+			}
+		}
 	}
 
 	/**
@@ -51,6 +76,39 @@ public abstract class Debug {
 		}
 	}
 
+	/**
+	 * A conditional print of a debug message that is only built if the flag is
+	 * active.
+	 * 
+	 * @param pFlag
+	 *            The conditional debug flag
+	 * @param pMessage
+	 *            builds the message to display if the flag is active.
+	 **/
+	public static void print(char pFlag, Supplier<String> pMessage) {
+		if (isEnabled(pFlag)) {
+			System.out.println(pMessage.get());
+		}
+	}
+
+	/**
+	 * A conditional print of a debug message that is only formatted if the
+	 * flag is active.
+	 * 
+	 * @param pFlag
+	 *            The conditional debug flag
+	 * @param pFormat
+	 *            the message to display if the flag is active, as a format
+	 *            string for String.format().
+	 * @param pArgs
+	 *            the arguments of the format string.
+	 **/
+	public static void print(char pFlag, String pFormat, Object... pArgs) {
+		if (isEnabled(pFlag)) {
+			System.out.println(String.format(pFormat, pArgs));
+		}
+	}
+
 	/**
 	 * Checks to see if a given debug flag is enabled.
 	 * 
@@ -58,23 +116,9 @@ public abstract class Debug {
 	 *            the flag to check.
 	 **/
 	public static boolean isEnabled(char pFlag) {
-		// The character arrays of active flags
-		char[] array = mFlags.toCharArray();
-
-		// Check each character
-		for (int i = 0; i < array.length; i++) {
-			// if the flag was found return true
-			if (array[i] == pFlag) {
-				return true;
-			}
-
-			// If all flags have been turned on
-			else if (array[i] == '+') {
-				return true;
-			}
+		if (pFlag < 128) {
+			return (mFlags[pFlag >> 6] & (1L << pFlag)) != 0;
 		}
-
-		// The flag was not found
-		return false;
+		return mAll;
 	}
 }
@@ -36,7 +36,7 @@ public abstract class ExceptionHandler {
 			SystemCallHandler.handleSystemCall(type);
 			break;
 
-		//Page not found in RAM, load page to RAM
+		//Page not found in RAM or not in the TLB, load page to RAM
 		case PageFaultException:
 
 			//Get the faulted virtual address
@@ -44,8 +44,15 @@ public abstract class ExceptionHandler {
 
 			AddrSpace addrSpace = JNachos.getCurrentProcess().getSpace();
 
-			//Call method to load the page
-			addrSpace.loadPageFault(virtAddr);
+			//Call method to load the page, and its translation into the TLB
+			if (!addrSpace.pageFault(virtAddr)) {
+				handleException(ExceptionType.AddressErrorException);
+			}
+			break;
+
+		//Write to a page shared since a fork, make a private copy
+		case ReadOnlyException:
+			JNachos.getCurrentProcess().getSpace().copyOnWrite(Machine.readRegister(Machine.BadVAddrReg));
 			break;
 
 
@@ -166,6 +166,42 @@ public abstract class JNachos {
 				rely = new Float(args[argv + 1]);
 				argCount = 2;
 			}
+			// Select the page replacement policy
+			if (args[argv].compareTo("-pr") == 0) {
+				assert (argc > 1);
+				CoreMap.setPolicy(ReplacementPolicy.valueOf(args[argv + 1].toUpperCase()));
+				argCount = 2;
+			}
+			// Translate through a TLB of the given size
+			if (args[argv].compareTo("-tlb") == 0) {
+				assert (argc > 1);
+				Machine.mUSE_TLB = true;
+				Machine.TLBSize = Integer.parseInt(args[argv + 1]);
+				argCount = 2;
+			}
+			// Set how many pages are read in around a page fault
+			if (args[argv].compareTo("-fa") == 0) {
+				assert (argc > 1);
+				AddrSpace.setFaultAround(Integer.parseInt(args[argv + 1]));
+				argCount = 2;
+			}
+			// Run user programs one instruction at a time, not in basic blocks
+			if (args[argv].compareTo("-interp") == 0) {
+				Machine.mUseBlocks = false;
+			}
+			// Compile basic blocks entered this many times; 0 never compiles
+			if (args[argv].compareTo("-jit") == 0) {
+				assert (argc > 1);
+				Machine.mCompileThreshold = Integer.parseInt(args[argv + 1]);
+				argCount = 2;
+			}
+			// Profile user programs; the profile is printed in the given
+			// format (flat or collapsed) at halt
+			if (args[argv].compareTo("-prof") == 0) {
+				assert (argc > 1);
+				Profiler.enable(args[argv + 1].equals("collapsed") ? Profiler.Collapsed : Profiler.Flat);
+				argCount = 2;
+			}
 			if (args[argv].compareTo("-m") == 0) {
 				assert (argc > 1);
 
@@ -265,6 +301,9 @@ public abstract class JNachos {
 	 * executable, load it into memory, and jump to it.
 	 **/
 	public static void startProcess(String[] filename) {//add []
+		// Keep frames free for the user programs' page faults
+		PageoutDaemon.start();
+
 		for (int i=1;i<filename.length;i++) {
 
 			OpenFile executable = mFileSystem.open(filename[i]);
@@ -280,7 +319,6 @@ public abstract class JNachos {
 
 			AddrSpace space = new AddrSpace(executable);
 			p.setSpace(space);
-			p.setProcessSwapFile(space.getSwapFile());
 
 			p.fork(new VoidFunctionPtr() {
 				@Override
@@ -302,7 +340,6 @@ public abstract class JNachos {
 		// Load the file into the memory space
 		AddrSpace space = new AddrSpace(executable);
 		getCurrentProcess().setSpace(space);
-		getCurrentProcess().setProcessSwapFile(space.getSwapFile());
 		// set the initial register values
 		space.initRegisters();
 
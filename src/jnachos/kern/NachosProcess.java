@@ -105,8 +105,17 @@ public class NachosProcess implements Runnable {
 	 */
 	private boolean forkedChild;
 
+	/**
+	 * Set for kernel processes that should only run when nothing else is
+	 * ready.
+	 */
+	private boolean mBackground;
 
-	private OpenFile processSwapFile;
+	/**
+	 * The files this process has open, indexed by descriptor number. The
+	 * console descriptors are never stored here.
+	 */
+	private OpenFileTable.Descriptor[] mDescriptors;
 
 
 	/**
@@ -133,6 +142,8 @@ public class NachosProcess implements Runnable {
 		processList.add(this);
 
 		forkedChild = false;
+
+		mDescriptors = new OpenFileTable.Descriptor[OpenFileTable.MaxOpenFiles];
 	}
 
 	/**
@@ -174,8 +185,14 @@ public class NachosProcess implements Runnable {
 	 * to start the java thread otherwise we resume it.
 	 **/
 	public synchronized void resume() {
-		// If this process has already begun, simply resume it
+		// Install the address space first: a new Java thread may start
+		// running user code before start() returns
 		AddrSpace space = getSpace();
+		if(space != null) {
+			space.restoreState();
+		}
+
+		// If this process has already begun, simply resume it
 		if (mStarted) {
 			this.restoreUserState();
 			this.notify();
@@ -195,9 +212,6 @@ public class NachosProcess implements Runnable {
 			mStarted = true;
 
 		}
-		if(space != null) {
-			space.restoreState();//restoreState before start
-		}
 	}
 
 	/**
@@ -284,13 +298,16 @@ public class NachosProcess implements Runnable {
 	 * setting ProcessToBeDestroyed, and going to sleep.
 	 **/
 	public void finish() {
+		// Give up any files still open; this may wait on the disk
+		closeAllDescriptors();
+
 		// Turn off interrupts
 		Interrupt.setLevel(false);
 
 		// Processes can only kill themselves
 		assert (this == JNachos.getCurrentProcess());
 
-		Debug.print('t', "Finishing Process " + getName());
+		Debug.print('t', "Finishing Process %s", getName());
 
 		//check whether any process is waiting for calling process to finish
 		// if yes, resume the waiting process before calling process finish
@@ -338,7 +355,7 @@ public class NachosProcess implements Runnable {
 		// Only the currently executing process can yield
 		assert (this == JNachos.getCurrentProcess());
 
-		Debug.print('t', "Yielding Process " + getName());
+		Debug.print('t', "Yielding Process %s", getName());
 
 		// Find the next process to run
 		nextProcess = Scheduler.findNextToRun();
@@ -382,7 +399,7 @@ public class NachosProcess implements Runnable {
 		// interrupts should already be disabled
 		assert (Interrupt.getLevel() == false);
 
-		Debug.print('t', "Sleeping Process" + getName());
+		Debug.print('t', "Sleeping Process%s", getName());
 
 		// Set the status for this process to blocked
 		mStatus = ProcessStatus.BLOCKED;
@@ -430,7 +447,7 @@ public class NachosProcess implements Runnable {
 		// nextProcess is now running
 		pNextProcess.setStatus(ProcessStatus.RUNNING);
 //		System.out.println("Switching from process "+ oldProcess.getmProcessID() + " to process " + pNextProcess.getmProcessID());
-		Debug.print('t', "Switching from process " + oldProcess.getName() + " to process " + pNextProcess.getName());
+		Debug.print('t', "Switching from process %s to process %s", oldProcess.getName(), pNextProcess.getName());
 
 		// Resume the other process
 		pNextProcess.resume();
@@ -438,7 +455,7 @@ public class NachosProcess implements Runnable {
 		// Stop the current process
 		oldProcess.suspend();
 
-		Debug.print('t', "Now in process " + pNextProcess.getName());
+		Debug.print('t', "Now in process %s", pNextProcess.getName());
 
 		// If the old process gave up the processor because it was finishing,
 		// we need to delete its carcass. Note we cannot delete the process
@@ -515,6 +532,26 @@ public class NachosProcess implements Runnable {
 		mStatus = pStatus;
 	}
 
+	/**
+	 * Whether the process runs at background priority.
+	 *
+	 * @return true if the process only runs when nothing else is ready.
+	 */
+	public boolean isBackground() {
+		return mBackground;
+	}
+
+	/**
+	 * Sets whether the process runs at background priority.
+	 *
+	 * @param pBackground
+	 *            true if the process should only run when nothing else is
+	 *            ready.
+	 */
+	public void setBackground(boolean pBackground) {
+		mBackground = pBackground;
+	}
+
 	/**
 	 * Gets the name for this process.
 	 * 
@@ -558,7 +595,9 @@ public class NachosProcess implements Runnable {
 	 */
 	public void writeUserRegister(int num, int value){
 		assert ((num >= 0) && (num < Machine.NumTotalRegs));
-		Debug.print('m', "WriteUserRegister " + num + ", value" + value);
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "WriteUserRegister " + num + ", value" + value);
+		}
 		this.mUserRegisters[num] = value;
 	}
 
@@ -617,14 +656,6 @@ public class NachosProcess implements Runnable {
 	}
 
 
-	public OpenFile getProcessSwapFile(){
-		return processSwapFile;
-	}
-
-	public void setProcessSwapFile(OpenFile swapFile){
-		processSwapFile = swapFile;
-	}
-
 	public static NachosProcess getProcessOnID(int processID){
 		for(NachosProcess process : processList){
 			if (process.getmProcessID() == processID)
@@ -632,4 +663,68 @@ public class NachosProcess implements Runnable {
 		}
 		return null;
 	}
+
+	/**
+	 * Install a descriptor in the lowest free slot.
+	 * @param pDescriptor the descriptor to install
+	 * @return the descriptor number, or -1 if the process has too many files open
+	 */
+	public int addDescriptor(OpenFileTable.Descriptor pDescriptor) {
+		for (int fd = OpenFileTable.ConsoleOutput + 1; fd < mDescriptors.length; fd++) {
+			if (mDescriptors[fd] == null) {
+				mDescriptors[fd] = pDescriptor;
+				return fd;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Look up an open file descriptor.
+	 * @param fd the descriptor number
+	 * @return the descriptor, or null if fd is not an open file
+	 */
+	public OpenFileTable.Descriptor getDescriptor(int fd) {
+		if (fd < 0 || fd >= mDescriptors.length) {
+			return null;
+		}
+		return mDescriptors[fd];
+	}
+
+	/**
+	 * Remove a descriptor from the process.
+	 * @param fd the descriptor number
+	 * @return the descriptor that was removed, or null if fd was not open
+	 */
+	public OpenFileTable.Descriptor removeDescriptor(int fd) {
+		OpenFileTable.Descriptor descriptor = getDescriptor(fd);
+		if (descriptor != null) {
+			mDescriptors[fd] = null;
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Give this process a copy of each of the parent's open descriptors, in the same slots
+	 * @param pParent the process being forked from
+	 */
+	public void inheritDescriptors(NachosProcess pParent) {
+		for (int fd = 0; fd < mDescriptors.length; fd++) {
+			if (pParent.mDescriptors[fd] != null) {
+				mDescriptors[fd] = OpenFileTable.duplicate(pParent.mDescriptors[fd]);
+			}
+		}
+	}
+
+	/**
+	 * Close every file the process still has open
+	 */
+	public void closeAllDescriptors() {
+		for (int fd = 0; fd < mDescriptors.length; fd++) {
+			if (mDescriptors[fd] != null) {
+				OpenFileTable.close(mDescriptors[fd]);
+				mDescriptors[fd] = null;
+			}
+		}
+	}
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import jnachos.filesystem.OpenFile;
+
+import java.util.HashMap;
+
+/**
+ * The system-wide table of open files. Every process that opens the same file
+ * name shares one OpenFile, and with it the cached file header, so all of them
+ * see each other's writes and growth. The table counts the descriptors that
+ * refer to each file and closes the file when the last one goes away.
+ *
+ * Each process owns an array of Descriptors, which carry the per-open seek
+ * position on top of the shared file.
+ */
+public class OpenFileTable {
+	/** Descriptor number of the console input. */
+	public static final int ConsoleInput = 0;
+
+	/** Descriptor number of the console output. */
+	public static final int ConsoleOutput = 1;
+
+	/** The number of descriptors each process has. */
+	public static final int MaxOpenFiles = 16;
+
+	/** The open files, by name. */
+	private static HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+	/**
+	 * One shared open file.
+	 */
+	private static class Entry {
+		/** The name the file was opened with. */
+		String mName;
+
+		/** The file itself. */
+		OpenFile mFile;
+
+		/** The number of descriptors referring to the file. */
+		int mRefCount;
+	}
+
+	/**
+	 * A process's handle on an open file.
+	 */
+	public static class Descriptor {
+		/** The shared file this descriptor refers to. */
+		private Entry mEntry;
+
+		/** Where the next read or write through this descriptor starts. */
+		private int mPosition;
+
+		/**
+		 * Creates a descriptor at the start of the file.
+		 *
+		 * @param pEntry
+		 *            the shared file.
+		 */
+		private Descriptor(Entry pEntry) {
+			mEntry = pEntry;
+			mPosition = 0;
+		}
+
+		/**
+		 * Returns the shared file.
+		 *
+		 * @return the file this descriptor refers to.
+		 */
+		public OpenFile getFile() {
+			return mEntry.mFile;
+		}
+
+		/**
+		 * Returns the position of the next read or write.
+		 *
+		 * @return the current position.
+		 */
+		public int getPosition() {
+			return mPosition;
+		}
+
+		/**
+		 * Moves the position of the next read or write.
+		 *
+		 * @param pPosition
+		 *            the new position.
+		 */
+		public void setPosition(int pPosition) {
+			mPosition = pPosition;
+		}
+	}
+
+	/**
+	 * Opens a file, sharing it if some process already has it open.
+	 *
+	 * @param pName
+	 *            the name of the file.
+	 * @return a new descriptor on the file, or null if it does not exist.
+	 */
+	public static Descriptor open(String pName) {
+		Entry entry = mEntries.get(pName);
+
+		if (entry == null) {
+			OpenFile file = JNachos.mFileSystem.open(pName);
+			if (file == null) {
+				return null;
+			}
+
+			// opening can sleep on the disk, so another process may have
+			// opened the same file meanwhile; share its copy instead
+			entry = mEntries.get(pName);
+			if (entry == null) {
+				entry = new Entry();
+				entry.mName = pName;
+				entry.mFile = file;
+				mEntries.put(pName, entry);
+			} else {
+				file.closeFile();
+			}
+		}
+
+		entry.mRefCount++;
+		Debug.print('f', "Open file table: " + pName + " has " + entry.mRefCount + " references");
+		return new Descriptor(entry);
+	}
+
+	/**
+	 * Makes another descriptor on the same file, for a forked child. The copy
+	 * starts at the same position but moves independently.
+	 *
+	 * @param pDescriptor
+	 *            the descriptor to copy.
+	 * @return the new descriptor.
+	 */
+	public static Descriptor duplicate(Descriptor pDescriptor) {
+		Descriptor copy = new Descriptor(pDescriptor.mEntry);
+		copy.mPosition = pDescriptor.mPosition;
+		pDescriptor.mEntry.mRefCount++;
+		return copy;
+	}
+
+	/**
+	 * Gives up a descriptor. The file is closed once no descriptor refers to
+	 * it.
+	 *
+	 * @param pDescriptor
+	 *            the descriptor to close.
+	 */
+	public static void close(Descriptor pDescriptor) {
+		Entry entry = pDescriptor.mEntry;
+		assert (entry.mRefCount > 0);
+
+		entry.mRefCount--;
+		Debug.print('f', "Open file table: " + entry.mName + " has " + entry.mRefCount + " references");
+
+		if (entry.mRefCount == 0) {
+			// write the header back while the entry is still in the table, so
+			// an open during the write shares it rather than reading the old
+			// header from disk
+			entry.mFile.closeFile();
+			if (entry.mRefCount == 0) {
+				mEntries.remove(entry.mName);
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import jnachos.machine.*;
+import jnachos.filesystem.OpenFile;
+import jnachos.kern.sync.Semaphore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of a user address space, as opposed to the page table entry that maps
+ * it. After a fork the parent and child hold the same Page at the same virtual
+ * page number; it is mapped read-only into both, and whichever writes it first
+ * gets a private copy. The text pages of an executable are shared the same
+ * way by every process running it.
+ *
+ * A Page knows the frame it is resident in, if any, and where else its
+ * contents can be found. Code and initialized data pages start out in the
+ * executable and are read from there until they are first written back;
+ * after that they come from the page's swap slot, the slot for its virtual
+ * page in the swap cluster of mSwapOwner.
+ *
+ * The swap owner is one of the sharers, or an address space that has since
+ * exited and whose swap cluster is kept for it. An address space's own slot
+ * is therefore free whenever it writes to a page that lives in another's, and
+ * before it writes to a shared page that lives in its own slot, the page is
+ * moved to a remaining sharer's slot.
+ */
+class Page {
+	/** The virtual page number of the page in every sharer. */
+	final int mVpn;
+
+	/** The address spaces mapping the page. */
+	final List<AddrSpace> mSharers = new ArrayList<AddrSpace>(1);
+
+	/** The address space whose swap cluster holds the page's slot. */
+	AddrSpace mSwapOwner;
+
+	/** The frame holding the page, or -1 if it is not resident. */
+	int mFrame = -1;
+
+	/**
+	 * Set if the frame holds changes not in the swap slot that no sharer's
+	 * page table entry records as dirty.
+	 */
+	boolean mDirty;
+
+	/** The executable the page is read from, or null. */
+	OpenFile mImage;
+
+	/** Where in the executable the page's bytes begin. */
+	int mImageOffset;
+
+	/** The offset in the page of the first byte read from the executable. */
+	int mImageStart;
+
+	/** The number of bytes of the page read from the executable. */
+	int mImageBytes;
+
+	/** Set once the page's contents are in its swap slot. */
+	boolean mInSwap;
+
+	/** Set while the page is being read in or written back. */
+	boolean mBusy;
+
+	/** The number of processes waiting for the page to stop being busy. */
+	private int mWaiters;
+
+	/** What those processes sleep on, created for the first of them. */
+	private Semaphore mIdle;
+
+	/**
+	 * Set for a page of program text, shared through the TextCache by every
+	 * process running the executable. It has no swap slot and is never
+	 * written; mSwapOwner is null.
+	 */
+	boolean mText;
+
+	/**
+	 * Create a page for an address space, kept in its own swap slot.
+	 *
+	 * @param pOwner
+	 *            the address space.
+	 * @param pVpn
+	 *            the virtual page number.
+	 */
+	Page(AddrSpace pOwner, int pVpn) {
+		mVpn = pVpn;
+		mSharers.add(pOwner);
+		mSwapOwner = pOwner;
+	}
+
+	/**
+	 * Whether more than one address space maps the page.
+	 */
+	boolean isShared() {
+		return mSharers.size() > 1;
+	}
+
+	/**
+	 * Whether the page must be mapped read-only, so that a write gets a
+	 * private copy of it.
+	 */
+	boolean isReadOnly() {
+		return mText || isShared();
+	}
+
+	/**
+	 * Whether any sharer has referenced the page since the use bits were
+	 * last cleared.
+	 */
+	boolean isUsed() {
+		for (AddrSpace sharer : mSharers) {
+			if (sharer.getPageTableEntry(mVpn).use) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Clear the use bit in every sharer's page table entry.
+	 */
+	void clearUse() {
+		for (AddrSpace sharer : mSharers) {
+			sharer.getPageTableEntry(mVpn).use = false;
+		}
+	}
+
+	/**
+	 * Whether the frame differs from the swap slot.
+	 */
+	boolean isDirty() {
+		if (mDirty) {
+			return true;
+		}
+		for (AddrSpace sharer : mSharers) {
+			if (sharer.getPageTableEntry(mVpn).dirty) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move the dirty bits of the sharers' page table entries into the page.
+	 */
+	void collectDirty() {
+		for (AddrSpace sharer : mSharers) {
+			TranslationEntry entry = sharer.getPageTableEntry(mVpn);
+			mDirty |= entry.dirty;
+			entry.dirty = false;
+		}
+	}
+
+	/**
+	 * Unmap the page from every sharer.
+	 */
+	void invalidate() {
+		for (AddrSpace sharer : mSharers) {
+			sharer.invalidateTlbEntry(mVpn);
+			sharer.getPageTableEntry(mVpn).valid = false;
+		}
+	}
+
+	/**
+	 * Sleep until the page is no longer being read in or written back.
+	 */
+	void waitUntilIdle() {
+		while (mBusy) {
+			if (mIdle == null) {
+				mIdle = new Semaphore("page " + mVpn, 0);
+			}
+			mWaiters++;
+			mIdle.P();
+		}
+	}
+
+	/**
+	 * Mark the page as no longer being read in or written back, and wake the
+	 * processes waiting for it.
+	 */
+	void setIdle() {
+		mBusy = false;
+		for (; mWaiters > 0; mWaiters--) {
+			mIdle.V();
+		}
+	}
+}
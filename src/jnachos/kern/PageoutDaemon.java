@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import jnachos.kern.sync.Semaphore;
+
+/**
+ * The pageout daemon is a kernel process that keeps a pool of free frames so
+ * that a page fault rarely has to evict a page, and never has to wait for a
+ * dirty one to be written back, before it can read its own page in.
+ *
+ * When taking a frame leaves fewer than LowWatermark free, the daemon is woken.
+ * It evicts pages, chosen by the replacement policy, until HighWatermark
+ * frames are free, writing the dirty ones back in batches. The daemon is
+ * woken at background priority, so it starts only when no other process is
+ * ready, while the processes it serves are waiting on the disk. Once it has
+ * started it runs at normal priority until it goes back to sleep, because
+ * processes that fault on the pages it is writing back wait for it.
+ *
+ * This class is abstract and should not be instantiated.
+ */
+public abstract class PageoutDaemon {
+	/** The daemon is woken when fewer frames than this are free. */
+	public static final int LowWatermark = 2;
+
+	/** The daemon evicts pages until this many frames are free. */
+	public static final int HighWatermark = 4;
+
+	/** The daemon sleeps on this until it is woken. */
+	private static Semaphore mWakeup = new Semaphore("pageout", 0);
+
+	/** Set from when the daemon is woken until it goes back to sleep. */
+	private static boolean mAwake;
+
+	/** The daemon process, or null if it has not been started. */
+	private static NachosProcess mProcess;
+
+	/**
+	 * Start the daemon, if it is not already running.
+	 */
+	public static void start() {
+		if (mProcess != null) {
+			return;
+		}
+
+		mProcess = new NachosProcess("pageout");
+		mProcess.setBackground(true);
+		mProcess.fork(new VoidFunctionPtr() {
+			@Override
+			public void call(Object pArg) {
+				run();
+			}
+		}, null);
+	}
+
+	/**
+	 * Called when a frame has been taken. Wakes the daemon if the pool of
+	 * free frames has run low.
+	 */
+	public static void frameTaken() {
+		if (mProcess != null && !mAwake && CoreMap.getNumFree() < LowWatermark) {
+			mAwake = true;
+			mWakeup.V();
+		}
+	}
+
+	/**
+	 * The body of the daemon.
+	 */
+	private static void run() {
+		while (true) {
+			mWakeup.P();
+			mProcess.setBackground(false);
+
+			while (CoreMap.getNumFree() < HighWatermark) {
+				if (AddrSpace.reclaimFrames(HighWatermark - CoreMap.getNumFree()) == 0) {
+					// every frame is pinned; the processes pinning them will
+					// free some or wake us again
+					break;
+				}
+			}
+			mAwake = false;
+			mProcess.setBackground(true);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+/**
+ * The page replacement policies the core map can use to choose a victim
+ * frame, selected at boot with "-pr".
+ * 
+ * FIFO evicts the page loaded longest ago. CLOCK sweeps a hand over the
+ * frames, giving a page whose use bit is set a second chance. ENHANCED_CLOCK
+ * also looks at the dirty bit and takes an unused clean page before an
+ * unused dirty one, saving the swap write. WSCLOCK evicts a page that has
+ * not been used for WorkingSetWindow ticks, preferring clean ones.
+ */
+public enum ReplacementPolicy {
+	FIFO, CLOCK, ENHANCED_CLOCK, WSCLOCK
+}
@@ -30,12 +30,19 @@ public class Scheduler {
 	 */
 	private static LinkedList<NachosProcess> readyList;
 
+	/**
+	 * The list of ready background processes, which only run when readyList
+	 * is empty.
+	 */
+	private static LinkedList<NachosProcess> backgroundList;
+
 	/**
 	 * Initialize the list of ready but not running process to empty.
 	 */
 	Scheduler() {
 		// Create a list of the processes
 		readyList = new LinkedList<NachosProcess>();
+		backgroundList = new LinkedList<NachosProcess>();
 	}
 
 	/**
@@ -51,6 +58,11 @@ public class Scheduler {
 			proc.kill();
 		}
 
+		// Kill the background processes too
+		while (!backgroundList.isEmpty()) {
+			backgroundList.removeFirst().kill();
+		}
+
 		// Mark the ready list as null
 		readyList = null;
 	}
@@ -63,26 +75,31 @@ public class Scheduler {
 	 *            is the process to be put on the ready list.
 	 **/
 	public static void readyToRun(NachosProcess pProcess) {
-		Debug.print('t', "Putting process " + pProcess.getName() + " on ready list.\n");
+		Debug.print('t', "Putting process %s on ready list.\n", pProcess.getName());
 
 		// Mark this process as ready to run
 		pProcess.setStatus(ProcessStatus.READY);
 
 		// Add this process to the list of process
-		readyList.addLast(pProcess);
+		if (pProcess.isBackground()) {
+			backgroundList.addLast(pProcess);
+		} else {
+			readyList.addLast(pProcess);
+		}
 	}
 
 	/**
-	 * Return the next process to be scheduled onto the CPU. If there are no
+	 * Return the next process to be scheduled onto the CPU. A background
+	 * process is only chosen if no other process is ready. If there are no
 	 * ready processes, return NULL. Side effect: Process is removed from the
 	 * ready list.
 	 * 
 	 * @return The next process that is able to run is returned, null if non.
 	 **/
 	public static NachosProcess findNextToRun() {
-		// If the list is empty return null
+		// If the list is empty fall back on the background processes
 		if (readyList.isEmpty())
-			return null;
+			return backgroundList.isEmpty() ? null : backgroundList.removeFirst();
 
 		// Return the head of the list
 		return readyList.removeFirst();
@@ -97,5 +114,8 @@ public class Scheduler {
 		for (NachosProcess np : readyList) {
 			System.out.println(np);
 		}
+		for (NachosProcess np : backgroundList) {
+			System.out.println(np);
+		}
 	}
 }
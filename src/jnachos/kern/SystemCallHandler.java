@@ -7,9 +7,12 @@
  */
 package jnachos.kern;
 
+import jnachos.filesystem.FileHeader;
 import jnachos.filesystem.OpenFile;
 import jnachos.machine.*;
 
+import java.nio.ByteBuffer;
+
 /** The class handles System calls made from user programs. */
 public class SystemCallHandler {
 	/** The System call index for halting. */
@@ -44,6 +47,13 @@ public class SystemCallHandler {
 
 	/** The System call index for yielding a program. */
 	public static final int SC_Yield = 10;
+
+	/** The names of the system calls, by index, for the profiler. */
+	private static final String[] callNames = { "Halt", "Exit", "Exec", "Join", "Create", "Open", "Read", "Write",
+			"Close", "Fork", "Yield" };
+
+	/** The longest file name a user program may pass in. */
+	public static final int MaxPathLength = 256;
 	/**
 	 * Entry point into the Nachos kernel. Called when a user program is
 	 * executing, and either does a syscall, or generates an addressing or
@@ -66,6 +76,13 @@ public class SystemCallHandler {
 		Debug.print('a', "!!!!" + Machine.read1 + "," + Machine.read2 + "," + Machine.read4 + "," + Machine.write1 + ","
 				+ Machine.write2 + "," + Machine.write4);
 
+		if (Profiler.isEnabled()) {
+			NachosProcess caller = JNachos.getCurrentProcess();
+			Profiler.systemCall(caller.getName() + "(" + caller.getmProcessID() + ")",
+					pWhichSysCall >= 0 && pWhichSysCall < callNames.length ? callNames[pWhichSysCall]
+							: "unknown " + pWhichSysCall);
+		}
+
 		NachosProcess currentProcess;
 
 		switch (pWhichSysCall) {
@@ -92,24 +109,28 @@ public class SystemCallHandler {
 			// Finish the invoking process
 			JNachos.getCurrentProcess().finish();
 			break;
-			//Execute system call to execute the user program
+			//Execute system call to execute the user program, r2 = -1 if it
+			//cannot be loaded
 		case SC_Exec:
 			// Read address of the file path store in memory from the 4th register
 			int args = Machine.readRegister(4);
-			StringBuilder filename=new StringBuilder();
-			int character;
 
 			//Fetch the user executable file path
-			while( (character = Machine.mMainMemory[args++]) != 0){
-				filename.append((char) character);
+			String filename = JNachos.getCurrentProcess().getSpace().readUserString(args, MaxPathLength);
+			if (filename == null) {
+				Debug.print('t', "Bad file name address " + args);
+				Machine.writeRegister(2, -1);
+				incrementPC();
+				return;
 			}
 
-
-			OpenFile executable = JNachos.mFileSystem.open(filename.toString());
+			OpenFile executable = JNachos.mFileSystem.open(filename);
 
 			// If the file does not exist
 			if (executable == null) {
-				Debug.print('t', "Unable to open file" + filename);
+				Debug.print('t', "Unable to open file " + filename);
+				Machine.writeRegister(2, -1);
+				incrementPC();
 				return;
 			}
 
@@ -119,13 +140,14 @@ public class SystemCallHandler {
 			//get the addSpace of current process
 			AddrSpace space = currentProcess.getSpace();
 
-			//clear the current addSpace
-			AddrSpace.cleanAddrSpcae(space);
-
-			//create and assign the new addSpace of new  to the process
+			//create and assign the new addSpace of new  to the process,
+			//before clearing the current one so that text they share stays cached
+			AddrSpace oldSpace = space;
 			space = new AddrSpace(executable);
 			currentProcess.setSpace(space);
-			currentProcess.setProcessSwapFile(space.getSwapFile());
+
+			//clear the current addSpace
+			AddrSpace.cleanAddrSpcae(oldSpace);
 
 			//reset the registers and load the page table to MMU
 			space.initRegisters();
@@ -159,7 +181,7 @@ public class SystemCallHandler {
 			//Copy the addrSpace of current process
 			AddrSpace addrSpace=new AddrSpace(JNachos.getCurrentProcess().getSpace());
 			nachosProcess.setSpace(addrSpace);
-			nachosProcess.setProcessSwapFile(addrSpace.getSwapFile());
+			nachosProcess.inheritDescriptors(JNachos.getCurrentProcess());
 			incrementPC();
 
 			//Write the forked process ID as the return value to called process register
@@ -182,12 +204,176 @@ public class SystemCallHandler {
 				}
 			},null);
 			break;
+		//Create an empty file, r2 = 0 on success or -1
+		case SC_Create:
+			Machine.writeRegister(2, create(Machine.readRegister(4)));
+			incrementPC();
+			break;
+		//Open a file, r2 = the descriptor or -1
+		case SC_Open:
+			Machine.writeRegister(2, open(Machine.readRegister(4)));
+			incrementPC();
+			break;
+		//Read into a user buffer, r2 = the number of bytes read or -1
+		case SC_Read:
+			Machine.writeRegister(2, read(Machine.readRegister(4), Machine.readRegister(5), Machine.readRegister(6)));
+			incrementPC();
+			break;
+		//Write from a user buffer, r2 = the number of bytes written or -1
+		case SC_Write:
+			Machine.writeRegister(2, write(Machine.readRegister(4), Machine.readRegister(5), Machine.readRegister(6)));
+			incrementPC();
+			break;
+		//Close a descriptor
+		case SC_Close:
+			OpenFileTable.Descriptor descriptor = JNachos.getCurrentProcess().removeDescriptor(Machine.readRegister(4));
+			if (descriptor != null) {
+				OpenFileTable.close(descriptor);
+			}
+			incrementPC();
+			break;
 		default:
 			Interrupt.halt();
 			break;
 		}
 	}
 
+	/**
+	 * Create an empty file named by a string in user memory.
+	 *
+	 * @param pNameAddr
+	 *            the user address of the file name
+	 * @return 0 if the file was created, -1 otherwise
+	 */
+	private static int create(int pNameAddr) {
+		String name = JNachos.getCurrentProcess().getSpace().readUserString(pNameAddr, MaxPathLength);
+		if (name == null || !JNachos.mFileSystem.create(name, 0)) {
+			return -1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Open a file named by a string in user memory.
+	 *
+	 * @param pNameAddr
+	 *            the user address of the file name
+	 * @return the new descriptor, or -1 if the file could not be opened
+	 */
+	private static int open(int pNameAddr) {
+		String name = JNachos.getCurrentProcess().getSpace().readUserString(pNameAddr, MaxPathLength);
+		if (name == null) {
+			return -1;
+		}
+
+		OpenFileTable.Descriptor descriptor = OpenFileTable.open(name);
+		if (descriptor == null) {
+			return -1;
+		}
+
+		int fd = JNachos.getCurrentProcess().addDescriptor(descriptor);
+		if (fd == -1) {
+			OpenFileTable.close(descriptor);
+		}
+		return fd;
+	}
+
+	/**
+	 * Read from a descriptor into user memory. The file is read into a kernel
+	 * buffer in one request and then copied into the user's pages one page
+	 * at a time.
+	 *
+	 * @param pBufferAddr
+	 *            the user address to read into
+	 * @param pSize
+	 *            the number of bytes wanted
+	 * @param pFd
+	 *            the descriptor to read from
+	 * @return the number of bytes read, or -1 on a bad descriptor or address
+	 */
+	private static int read(int pBufferAddr, int pSize, int pFd) {
+		if (pSize < 0) {
+			return -1;
+		}
+		byte[] buffer;
+		int numRead;
+
+		if (pFd == OpenFileTable.ConsoleInput) {
+			if (pSize > JNachos.getCurrentProcess().getSpace().getSize()) {
+				return -1;
+			}
+			buffer = new byte[pSize];
+			numRead = JavaSys.readConsole(buffer);
+		} else {
+			OpenFileTable.Descriptor descriptor = JNachos.getCurrentProcess().getDescriptor(pFd);
+			if (descriptor == null) {
+				return -1;
+			}
+
+			// Only allocate what the file can supply
+			OpenFile file = descriptor.getFile();
+			buffer = new byte[Math.max(0, Math.min(pSize, file.length() - descriptor.getPosition()))];
+			numRead = Math.max(0, file.read(ByteBuffer.wrap(buffer), descriptor.getPosition()));
+			descriptor.setPosition(descriptor.getPosition() + numRead);
+		}
+
+		if (!JNachos.getCurrentProcess().getSpace().copyOut(buffer, 0, pBufferAddr, numRead)) {
+			return -1;
+		}
+		return numRead;
+	}
+
+	/**
+	 * Write from user memory to a descriptor. The user's pages are copied into
+	 * a kernel buffer one page at a time and then written in one request. A
+	 * file cannot grow past FileHeader.MaxFileSize, so a write that would take
+	 * it further is cut short there.
+	 *
+	 * @param pBufferAddr
+	 *            the user address to write from
+	 * @param pSize
+	 *            the number of bytes to write
+	 * @param pFd
+	 *            the descriptor to write to
+	 * @return the number of bytes written, or -1 on a bad descriptor or
+	 *         address, or if the file cannot grow at all
+	 */
+	private static int write(int pBufferAddr, int pSize, int pFd) {
+		if (pSize < 0) {
+			return -1;
+		}
+
+		if (pFd == OpenFileTable.ConsoleOutput) {
+			if (pSize > JNachos.getCurrentProcess().getSpace().getSize()) {
+				return -1;
+			}
+			byte[] buffer = new byte[pSize];
+			if (!JNachos.getCurrentProcess().getSpace().copyIn(pBufferAddr, buffer, 0, pSize)) {
+				return -1;
+			}
+			System.out.print(new String(buffer));
+			return pSize;
+		}
+
+		OpenFileTable.Descriptor descriptor = JNachos.getCurrentProcess().getDescriptor(pFd);
+		if (descriptor == null) {
+			return -1;
+		}
+
+		int size = Math.min(pSize, FileHeader.MaxFileSize - descriptor.getPosition());
+		if (size <= 0) {
+			return pSize == 0 ? 0 : -1;
+		}
+		byte[] buffer = new byte[size];
+		if (!JNachos.getCurrentProcess().getSpace().copyIn(pBufferAddr, buffer, 0, size)) {
+			return -1;
+		}
+
+		int numWritten = descriptor.getFile().write(ByteBuffer.wrap(buffer), descriptor.getPosition());
+		descriptor.setPosition(descriptor.getPosition() + numWritten);
+		return numWritten;
+	}
+
 	/**
 	 * Increment the program counter to next instruction
 	 */
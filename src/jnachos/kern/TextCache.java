@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern;
+
+import java.util.HashMap;
+
+/**
+ * The text pages of the executables being run, so that every process running
+ * the same program maps the same code pages instead of reading its own copy
+ * into memory. An executable is known by the disk sector of its file header.
+ *
+ * A text page is mapped read-only into every process using it and is never
+ * written back; a process that writes one gets a private copy. The pages of
+ * an executable stay cached, resident or not, until the last address space
+ * using them is released.
+ *
+ * This class is abstract and should not be instantiated.
+ */
+abstract class TextCache {
+	/** The text of one executable. */
+	private static class Text {
+		/** The text pages, indexed by virtual page number. */
+		Page[] mPages;
+
+		/** The number of address spaces using the text. */
+		int mUsers;
+	}
+
+	/** The text of each executable in use, by file header sector. */
+	private static HashMap<Integer, Text> mTexts = new HashMap<Integer, Text>();
+
+	/**
+	 * Start using the text of an executable, if it is cached.
+	 *
+	 * @param pSector
+	 *            the executable's file header sector.
+	 * @return the text pages, indexed by virtual page number, or null if the
+	 *         executable is not cached.
+	 */
+	static Page[] attach(int pSector) {
+		Text text = mTexts.get(pSector);
+		if (text == null) {
+			return null;
+		}
+		text.mUsers++;
+		return text.mPages;
+	}
+
+	/**
+	 * Cache the text of an executable, for an address space that has just
+	 * read it and is its first user.
+	 *
+	 * @param pSector
+	 *            the executable's file header sector.
+	 * @param pPages
+	 *            the text pages, indexed by virtual page number.
+	 */
+	static void insert(int pSector, Page[] pPages) {
+		assert (!mTexts.containsKey(pSector));
+		Text text = new Text();
+		text.mPages = pPages;
+		text.mUsers = 1;
+		mTexts.put(pSector, text);
+	}
+
+	/**
+	 * Stop using the text of an executable. When its last user goes, the
+	 * text is dropped and its frames freed.
+	 *
+	 * @param pSector
+	 *            the executable's file header sector.
+	 */
+	static void detach(int pSector) {
+		Text text = mTexts.get(pSector);
+		if (--text.mUsers > 0) {
+			return;
+		}
+
+		mTexts.remove(pSector);
+		for (Page page : text.mPages) {
+			if (page != null && page.mFrame != -1) {
+				assert (page.mSharers.isEmpty() && !page.mBusy);
+				CoreMap.free(page.mFrame);
+				page.mFrame = -1;
+			}
+		}
+	}
+}
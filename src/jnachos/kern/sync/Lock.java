@@ -7,25 +7,76 @@
  */
 package jnachos.kern.sync;
 
-/** */
+import jnachos.kern.*;
+
+/**
+ * A lock provides mutual exclusion: at most one process holds it at a time,
+ * and only the holder may release it. It is built on a binary semaphore, so
+ * processes waiting for it sleep rather than spin. Locks are not reentrant.
+ */
 public class Lock {
-	/** */
+	/** The name of this lock for debugging. */
 	private String mName;
 
+	/** Binary semaphore, 1 when the lock is free. */
+	private Semaphore mSemaphore;
+
+	/** The process holding the lock, or null if it is free. */
+	private NachosProcess mOwner;
+
+	/**
+	 * Creates a free lock.
+	 *
+	 * @param pName
+	 *            The debug name for this lock.
+	 */
+	public Lock(String pName) {
+		mName = pName;
+		mSemaphore = new Semaphore(pName, 1);
+		mOwner = null;
+	}
+
+	/**
+	 * Deletes the lock, killing any process still waiting for it.
+	 */
 	public void delete() {
+		mSemaphore.delete();
+	}
 
+	/**
+	 * Returns the name of the lock.
+	 *
+	 * @return The name of this lock.
+	 */
+	public String getName() {
+		return mName;
 	}
 
+	/**
+	 * Wait until the lock is free, then take it.
+	 */
 	public void acquire() {
-
+		assert (!isHeldByCurrentProcess());
+		mSemaphore.P();
+		mOwner = JNachos.getCurrentProcess();
 	}
 
+	/**
+	 * Release the lock, waking up a waiter if there is one. Only the holder
+	 * may release the lock.
+	 */
 	public void release() {
-
+		assert (isHeldByCurrentProcess());
+		mOwner = null;
+		mSemaphore.V();
 	}
 
-	public Lock(String pName) {
-		mName = pName;
+	/**
+	 * Checks whether the current process holds the lock.
+	 *
+	 * @return true if the current process holds the lock.
+	 */
+	public boolean isHeldByCurrentProcess() {
+		return mOwner == JNachos.getCurrentProcess();
 	}
-
 }
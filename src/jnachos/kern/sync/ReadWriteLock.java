@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation 
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.kern.sync;
+
+import jnachos.machine.Interrupt;
+
+/**
+ * A reader/writer lock lets any number of readers in at once, or a single
+ * writer. Writers are preferred: once a writer is waiting, new readers wait
+ * behind it. When a writer leaves and no other writer is waiting, every
+ * waiting reader is let in together.
+ * 
+ * The lock is handed over directly: the releasing process updates the counts
+ * on behalf of the processes it wakes, so nobody can slip in between. As in
+ * Semaphore, the counts are checked and updated with interrupts disabled.
+ */
+public class ReadWriteLock {
+	/** The name of this lock for debugging. */
+	private String mName;
+
+	/** Readers sleep here until they are let in. */
+	private Semaphore mReadGate;
+
+	/** Writers sleep here until they are let in. */
+	private Semaphore mWriteGate;
+
+	/** The number of readers holding the lock. */
+	private int mReaders;
+
+	/** Whether a writer holds the lock. */
+	private boolean mWriting;
+
+	/** The number of readers sleeping on mReadGate. */
+	private int mWaitingReaders;
+
+	/** The number of writers sleeping on mWriteGate. */
+	private int mWaitingWriters;
+
+	/**
+	 * Creates a free reader/writer lock.
+	 *
+	 * @param pName
+	 *            The debug name for this lock.
+	 */
+	public ReadWriteLock(String pName) {
+		mName = pName;
+		mReadGate = new Semaphore(pName + " readers", 0);
+		mWriteGate = new Semaphore(pName + " writers", 0);
+	}
+
+	/**
+	 * Deletes the lock, killing any process still waiting for it.
+	 */
+	public void delete() {
+		mReadGate.delete();
+		mWriteGate.delete();
+	}
+
+	/**
+	 * Returns the name of the lock.
+	 *
+	 * @return The name of this lock.
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Wait until no writer holds or is waiting for the lock, then take a
+	 * share of it.
+	 */
+	public void acquireRead() {
+		boolean oldLevel = Interrupt.setLevel(false);
+		if (mWriting || mWaitingWriters > 0) {
+			mWaitingReaders++;
+
+			// the releasing writer counts us in
+			mReadGate.P();
+		} else {
+			mReaders++;
+		}
+		Interrupt.setLevel(oldLevel);
+	}
+
+	/**
+	 * Give up a share of the lock. The last reader out lets a waiting writer
+	 * in.
+	 */
+	public void releaseRead() {
+		boolean oldLevel = Interrupt.setLevel(false);
+		assert (mReaders > 0);
+		mReaders--;
+		if (mReaders == 0 && mWaitingWriters > 0) {
+			mWaitingWriters--;
+			mWriting = true;
+			mWriteGate.V();
+		}
+		Interrupt.setLevel(oldLevel);
+	}
+
+	/**
+	 * Wait until nobody holds the lock, then take it exclusively.
+	 */
+	public void acquireWrite() {
+		boolean oldLevel = Interrupt.setLevel(false);
+		if (mWriting || mReaders > 0) {
+			mWaitingWriters++;
+
+			// the releasing process marks us as the writer
+			mWriteGate.P();
+		} else {
+			mWriting = true;
+		}
+		Interrupt.setLevel(oldLevel);
+	}
+
+	/**
+	 * Give up the lock, letting in the next writer if there is one and all
+	 * waiting readers otherwise.
+	 */
+	public void releaseWrite() {
+		boolean oldLevel = Interrupt.setLevel(false);
+		assert (mWriting);
+		mWriting = false;
+		if (mWaitingWriters > 0) {
+			mWaitingWriters--;
+			mWriting = true;
+			mWriteGate.V();
+		} else {
+			while (mWaitingReaders > 0) {
+				mWaitingReaders--;
+				mReaders++;
+				mReadGate.V();
+			}
+		}
+		Interrupt.setLevel(oldLevel);
+	}
+}
@@ -78,14 +78,14 @@ public class Semaphore {
 		// decrement the value
 		mValue--;
 
-		Debug.print('s', "P: " + proc.getName() + "\t" + mName + "\t" + mValue);
+		Debug.print('s', "P: %s\t%s\t%d", proc.getName(), mName, mValue);
 
 		// If there is not available value
 		if (mValue < 0) {
 			// Add this process to the queue
 			mQueue.addLast(proc);
 
-			Debug.print('s', "P: sleeping " + proc.getName() + "\t" + mName + "\t" + mValue);
+			Debug.print('s', "P: sleeping %s\t%s\t%d", proc.getName(), mName, mValue);
 
 			// put the process to sleep
 			proc.sleep();
@@ -108,13 +108,13 @@ public class Semaphore {
 		// make thread ready, consuming the V immediately
 		if (!mQueue.isEmpty()) {
 			NachosProcess proc = mQueue.removeFirst();
-			Debug.print('s', "Waking: " + mName + proc.getName());
+			Debug.print('s', "Waking: %s%s", mName, proc.getName());
 			Scheduler.readyToRun(proc);
 		}
 
 		mValue++;
 
-		Debug.print('s', "V: " + c_proc.getName() + "\t" + mName + "\t" + mValue + "\t" + mQueue.size());
+		Debug.print('s', "V: %s\t%s\t%d\t%d", c_proc.getName(), mName, mValue, mQueue.size());
 		Interrupt.setLevel(oldLevel);
 	}
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+/**
+ * A basic block of user code: a run of instructions in one frame that is
+ * entered at the top and, barring exceptions, executed straight through. A
+ * block ends with a branch or jump and its delay slot, with an instruction
+ * that always traps, or at the end of the frame.
+ *
+ * The block holds the decoded instructions themselves, so that the basic
+ * block engine can run it without fetching or looking anything up per
+ * instruction. It stays good until the code in its frame changes, which
+ * Machine tracks with a generation number per frame. A block that is entered
+ * often is compiled, and the compiled form goes when the block does.
+ */
+class BasicBlock {
+	/** The physical address of the first instruction. */
+	final int mStart;
+
+	/** The frame holding the block. */
+	final int mFrame;
+
+	/** The decoded instructions, in order. */
+	final Instruction[] mInstructions;
+
+	/** The generation of the frame's code the block was built from. */
+	final int mGeneration;
+
+	/** The number of times the block has been entered. */
+	int mExecutions;
+
+	/** The block compiled, once it has been entered often enough, or null. */
+	CompiledBlock mCompiled;
+
+	/**
+	 * Create a block.
+	 *
+	 * @param pStart
+	 *            the physical address of the first instruction.
+	 * @param pInstructions
+	 *            the decoded instructions.
+	 * @param pGeneration
+	 *            the generation of the frame's code.
+	 */
+	BasicBlock(int pStart, Instruction[] pInstructions, int pGeneration) {
+		mStart = pStart;
+		mFrame = pStart / Machine.PageSize;
+		mInstructions = pInstructions;
+		mGeneration = pGeneration;
+	}
+
+	/**
+	 * Whether an instruction transfers control, so that a block ends after
+	 * its delay slot.
+	 *
+	 * @param pInstr
+	 *            the decoded instruction.
+	 */
+	static boolean isBranch(Instruction pInstr) {
+		switch (pInstr.opCode) {
+		case MipsSim.OP_BEQ:
+		case MipsSim.OP_BGEZ:
+		case MipsSim.OP_BGEZAL:
+		case MipsSim.OP_BGTZ:
+		case MipsSim.OP_BLEZ:
+		case MipsSim.OP_BLTZ:
+		case MipsSim.OP_BLTZAL:
+		case MipsSim.OP_BNE:
+		case MipsSim.OP_J:
+		case MipsSim.OP_JAL:
+		case MipsSim.OP_JALR:
+		case MipsSim.OP_JR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Whether an instruction always raises an exception, so that a block ends
+	 * with it.
+	 *
+	 * @param pInstr
+	 *            the decoded instruction.
+	 */
+	static boolean isTrap(Instruction pInstr) {
+		return pInstr.opCode == MipsSim.OP_SYSCALL || pInstr.opCode == MipsSim.OP_UNIMP
+				|| pInstr.opCode == MipsSim.OP_RES;
+	}
+}
@@ -0,0 +1,375 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hot basic block, compiled into steps the basic block engine runs in place
+ * of interpreting its instructions one by one.
+ *
+ * Each run of register-only instructions that cannot raise an exception is
+ * compiled into a single step: one operation object per instruction, bound to
+ * its registers and immediate, with no decoding or dispatch on the opcode, and
+ * with the program counters advanced once for the whole run. Every other
+ * instruction -- loads, stores, branches, traps, and arithmetic that can
+ * overflow -- is a step of its own that MipsSim.execute() interprets.
+ *
+ * Every operation does exactly what MipsSim.execute() does for its
+ * instruction, so running a compiled block is indistinguishable from
+ * interpreting it. A compiled block belongs to its BasicBlock, and is thrown
+ * away with it when the code in the frame changes.
+ */
+class CompiledBlock {
+	/** A piece of a compiled block: one or more consecutive instructions. */
+	abstract static class Step {
+		/** The number of instructions the step executes. */
+		final int mLength;
+
+		/**
+		 * Create a step.
+		 *
+		 * @param pLength
+		 *            the number of instructions.
+		 */
+		Step(int pLength) {
+			mLength = pLength;
+		}
+
+		/**
+		 * Execute the step's instructions, the first of them at the PC.
+		 *
+		 * @param r
+		 *            the machine registers.
+		 * @return false if an instruction raised an exception.
+		 */
+		abstract boolean run(int[] r);
+	}
+
+	/** An instruction left to the interpreter. */
+	static class Interpreted extends Step {
+		/** The decoded instruction. */
+		private final Instruction mInstr;
+
+		Interpreted(Instruction pInstr) {
+			super(1);
+			mInstr = pInstr;
+		}
+
+		boolean run(int[] r) {
+			return MipsSim.execute(mInstr);
+		}
+	}
+
+	/**
+	 * A run of register-only instructions. A run of more than one has to be
+	 * entered with the next PC following the PC, not in a delay slot.
+	 */
+	static class AluRun extends Step {
+		/** The operations, one per instruction. */
+		private final AluOp[] mOps;
+
+		AluRun(AluOp[] pOps) {
+			super(pOps.length);
+			mOps = pOps;
+		}
+
+		boolean run(int[] r) {
+			int pc = r[Machine.PCReg];
+			int nextPc = r[Machine.NextPCReg];
+
+			// A load in progress completes after the first instruction; after
+			// that there is none
+			mOps[0].apply(r);
+			Machine.delayedLoad(0, 0);
+			for (int i = 1; i < mOps.length; i++) {
+				mOps[i].apply(r);
+			}
+
+			r[Machine.PrevPCReg] = pc + (mLength - 1) * 4;
+			r[Machine.PCReg] = nextPc + (mLength - 1) * 4;
+			r[Machine.NextPCReg] = nextPc + mLength * 4;
+			return true;
+		}
+	}
+
+	/** The operation of one register-only instruction. */
+	abstract static class AluOp {
+		/**
+		 * Perform the operation.
+		 *
+		 * @param r
+		 *            the machine registers.
+		 */
+		abstract void apply(int[] r);
+	}
+
+	/** An instruction whose result is thrown away: it writes register 0. */
+	private static final AluOp Nop = new AluOp() {
+		void apply(int[] r) {
+		}
+	};
+
+	/** The steps, in order. */
+	final Step[] mSteps;
+
+	/**
+	 * Create a compiled block.
+	 *
+	 * @param pSteps
+	 *            the steps.
+	 */
+	private CompiledBlock(Step[] pSteps) {
+		mSteps = pSteps;
+	}
+
+	/**
+	 * Compile a basic block.
+	 *
+	 * @param pBlock
+	 *            the block.
+	 * @return the compiled block.
+	 */
+	static CompiledBlock compile(BasicBlock pBlock) {
+		List<Step> steps = new ArrayList<Step>();
+		List<AluOp> run = new ArrayList<AluOp>();
+
+		for (Instruction instr : pBlock.mInstructions) {
+			AluOp op = compileAlu(instr);
+			if (op != null) {
+				run.add(op);
+				continue;
+			}
+			if (!run.isEmpty()) {
+				steps.add(new AluRun(run.toArray(new AluOp[run.size()])));
+				run.clear();
+			}
+			steps.add(new Interpreted(instr));
+		}
+		if (!run.isEmpty()) {
+			steps.add(new AluRun(run.toArray(new AluOp[run.size()])));
+		}
+
+		return new CompiledBlock(steps.toArray(new Step[steps.size()]));
+	}
+
+	/**
+	 * Compile a register-only instruction that cannot raise an exception.
+	 *
+	 * @param pInstr
+	 *            the decoded instruction.
+	 * @return its operation, or null if the instruction is not one of those.
+	 */
+	private static AluOp compileAlu(Instruction pInstr) {
+		final int s = pInstr.rs;
+		final int t = pInstr.rt;
+		final int d = pInstr.rd;
+		final int imm = pInstr.extra;
+
+		switch (pInstr.opCode) {
+		case MipsSim.OP_ADDIU:
+		case MipsSim.OP_ANDI:
+		case MipsSim.OP_LUI:
+		case MipsSim.OP_ORI:
+		case MipsSim.OP_SLTI:
+		case MipsSim.OP_SLTIU:
+		case MipsSim.OP_XORI:
+			if (t == 0) {
+				return Nop;
+			}
+			break;
+
+		case MipsSim.OP_ADDU:
+		case MipsSim.OP_AND:
+		case MipsSim.OP_MFHI:
+		case MipsSim.OP_MFLO:
+		case MipsSim.OP_NOR:
+		case MipsSim.OP_OR:
+		case MipsSim.OP_SLL:
+		case MipsSim.OP_SLLV:
+		case MipsSim.OP_SLT:
+		case MipsSim.OP_SLTU:
+		case MipsSim.OP_SRA:
+		case MipsSim.OP_SRAV:
+		case MipsSim.OP_SRL:
+		case MipsSim.OP_SRLV:
+		case MipsSim.OP_SUBU:
+		case MipsSim.OP_XOR:
+			if (d == 0) {
+				return Nop;
+			}
+			break;
+
+		case MipsSim.OP_MTHI:
+		case MipsSim.OP_MTLO:
+			break;
+
+		default:
+			return null;
+		}
+
+		switch (pInstr.opCode) {
+		case MipsSim.OP_ADDIU:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[t] = r[s] + imm;
+				}
+			};
+
+		case MipsSim.OP_ADDU:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[s] + r[t];
+				}
+			};
+
+		case MipsSim.OP_AND:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[s] & r[t];
+				}
+			};
+
+		case MipsSim.OP_ANDI:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[t] = r[s] & (imm & 0xffff);
+				}
+			};
+
+		case MipsSim.OP_LUI:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[t] = imm << 16;
+				}
+			};
+
+		case MipsSim.OP_MFHI:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[Machine.HiReg];
+				}
+			};
+
+		case MipsSim.OP_MFLO:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[Machine.LoReg];
+				}
+			};
+
+		case MipsSim.OP_MTHI:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[Machine.HiReg] = r[s];
+				}
+			};
+
+		case MipsSim.OP_MTLO:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[Machine.LoReg] = r[s];
+				}
+			};
+
+		case MipsSim.OP_NOR:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = ~(r[s] | r[t]);
+				}
+			};
+
+		case MipsSim.OP_OR:
+			// As the interpreter does it
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[s] | r[s];
+				}
+			};
+
+		case MipsSim.OP_ORI:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[t] = r[s] | (imm & 0xffff);
+				}
+			};
+
+		case MipsSim.OP_SLL:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[t] << imm;
+				}
+			};
+
+		case MipsSim.OP_SLLV:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[t] << (r[s] & 0x1f);
+				}
+			};
+
+		case MipsSim.OP_SLT:
+		case MipsSim.OP_SLTU:
+			// The interpreter compares both signed
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[s] < r[t] ? 1 : 0;
+				}
+			};
+
+		case MipsSim.OP_SLTI:
+		case MipsSim.OP_SLTIU:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[t] = r[s] < imm ? 1 : 0;
+				}
+			};
+
+		case MipsSim.OP_SRA:
+		case MipsSim.OP_SRL:
+			// The interpreter shifts both arithmetically
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[t] >> imm;
+				}
+			};
+
+		case MipsSim.OP_SRAV:
+		case MipsSim.OP_SRLV:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[t] >> (r[s] & 0x1f);
+				}
+			};
+
+		case MipsSim.OP_SUBU:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[s] - r[t];
+				}
+			};
+
+		case MipsSim.OP_XOR:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[d] = r[s] ^ r[t];
+				}
+			};
+
+		case MipsSim.OP_XORI:
+			return new AluOp() {
+				void apply(int[] r) {
+					r[t] = r[s] ^ (imm & 0xffff);
+				}
+			};
+
+		default:
+			assert (false);
+			return null;
+		}
+	}
+}
@@ -54,7 +54,7 @@ public class Disk implements VoidFunctionPtr {
 	/**
 	 * When the track buffer started being loaded.
 	 */
-	private int mBufferInit;
+	private long mBufferInit;
 
 	/**
 	 * Number of sectors in a fragment
@@ -208,26 +208,43 @@ public class Disk implements VoidFunctionPtr {
 	 *            buffer to hold the incoming bytes.
 	 */
 	public void readRequest(int sectorNumber, byte[] data) {
-		int ticks = computeLatency(sectorNumber, false);
+		readRequest(sectorNumber, 1, data);
+	}
 
+	/**
+	 * Simulate a request to read a run of consecutive disk sectors as one
+	 * transfer. The head seeks once to the first sector and then reads the
+	 * rest as they rotate past, so the run costs one positioning delay plus
+	 * one rotation time per sector (and a track-to-track seek whenever the
+	 * run crosses onto the next track).
+	 *
+	 * @param firstSector
+	 *            the first disk sector to read.
+	 * @param numSectors
+	 *            the number of sectors to read.
+	 * @param data
+	 *            the buffer to hold the incoming bytes, numSectors *
+	 *            SectorSize long.
+	 */
+	public void readRequest(int firstSector, int numSectors, byte[] data) {
+		int ticks = computeLatency(firstSector, numSectors, false);
 		assert (!mActive);
-		// only one request at a time
-		assert ((sectorNumber >= 0) && (sectorNumber < NumSectors));
 
-		Debug.print('d', "Reading from sector" + sectorNumber);
+		// only one request at a time
+		assert ((firstSector >= 0) && (numSectors > 0) && (firstSector + numSectors <= NumSectors));
+		assert (data.length >= numSectors * SectorSize);
 
-		JavaSys.lseek(mFileno, SectorSize * sectorNumber + MagicSize);
-		JavaSys.read(mFileno, data, SectorSize);
+		Debug.print('d', "Reading %d sectors from sector %d", numSectors, firstSector);
+		JavaSys.lseek(mFileno, SectorSize * firstSector + MagicSize);
+		JavaSys.read(mFileno, data, numSectors * SectorSize);
 
 		if (Debug.isEnabled('d')) {
-			printSector(false, sectorNumber, data);
+			printSector(false, firstSector, data);
 		}
 
 		mActive = true;
-		updateLast(sectorNumber);
-
+		updateLast(firstSector + numSectors - 1);
 		Statistics.numDiskReads++;
-
 		Interrupt.schedule(this, null, ticks, InterruptType.DiskInt);
 	}
 
@@ -245,23 +262,37 @@ public class Disk implements VoidFunctionPtr {
 	 *            the bytes to be written.
 	 */
 	public void writeRequest(int sectorNumber, byte[] data) {
-		int ticks = computeLatency(sectorNumber, true);
+		writeRequest(sectorNumber, 1, data);
+	}
 
+	/**
+	 * Simulate a request to write a run of consecutive disk sectors as one
+	 * transfer. Timing is as for the multi-sector readRequest.
+	 *
+	 * @param firstSector
+	 *            the first disk sector to write.
+	 * @param numSectors
+	 *            the number of sectors to write.
+	 * @param data
+	 *            the bytes to be written, numSectors * SectorSize long.
+	 */
+	public void writeRequest(int firstSector, int numSectors, byte[] data) {
+		int ticks = computeLatency(firstSector, numSectors, true);
 		assert (!mActive);
-		assert ((sectorNumber >= 0) && (sectorNumber < NumSectors));
+		assert ((firstSector >= 0) && (numSectors > 0) && (firstSector + numSectors <= NumSectors));
+		assert (data.length >= numSectors * SectorSize);
 
-		Debug.print('d', "Writing to sector " + sectorNumber);
-		Debug.print('d', "Location: " + SectorSize * sectorNumber + MagicSize);
-		JavaSys.lseek(mFileno, SectorSize * sectorNumber + MagicSize);
-		JavaSys.writeFile(mFileno, data, SectorSize);
+		Debug.print('d', "Writing %d sectors to sector %d", numSectors, firstSector);
+		Debug.print('d', "Location: %d", SectorSize * firstSector + MagicSize);
+		JavaSys.lseek(mFileno, SectorSize * firstSector + MagicSize);
+		JavaSys.writeFile(mFileno, data, numSectors * SectorSize);
 
 		if (Debug.isEnabled('d')) {
-			printSector(true, sectorNumber, data);
+			printSector(true, firstSector, data);
 		}
 
 		mActive = true;
-		updateLast(sectorNumber);
-
+		updateLast(firstSector + numSectors - 1);
 		Statistics.numDiskWrites++;
 		Interrupt.schedule(this, null, ticks, InterruptType.DiskInt);
 	}
@@ -280,7 +311,7 @@ public class Disk implements VoidFunctionPtr {
 		int oldTrack = mLastSector / SectorsPerTrack;
 		int seek = Math.abs(newTrack - oldTrack) * Statistics.SeekTime;
 		// how long will seek take?
-		int over = (Statistics.totalTicks + seek) % Statistics.RotationTime;
+		int over = (int) ((Statistics.totalTicks + seek) % Statistics.RotationTime);
 		// will we be in the middle of a sector when
 		// we finish the seek?
 
@@ -323,7 +354,7 @@ public class Disk implements VoidFunctionPtr {
 	public int computeLatency(int newSector, boolean writing) {
 		int[] rotation = new int[1];
 		int seek = timeToSeek(newSector, rotation);
-		int timeAfter = Statistics.totalTicks + seek + rotation[0];
+		long timeAfter = Statistics.totalTicks + seek + rotation[0];
 
 		/*
 		 * // turn this on if you don't want the track buffer stuff // check if
@@ -334,13 +365,39 @@ public class Disk implements VoidFunctionPtr {
 		 * to transfer sector from the track buffer }
 		 */
 
-		rotation[0] += moduloDiff(newSector, timeAfter / Statistics.RotationTime) * Statistics.RotationTime;
+		rotation[0] += moduloDiff(newSector, (int) (timeAfter / Statistics.RotationTime % SectorsPerTrack))
+				* Statistics.RotationTime;
 
-		Debug.print('d', "Request latency = " + seek + rotation + Statistics.RotationTime);
+		Debug.print('d', "Request latency = %d", seek + rotation[0] + Statistics.RotationTime);
 
 		return (seek + rotation[0] + Statistics.RotationTime);
 	}
 
+	/**
+	 * Return how long it will take to transfer a run of consecutive sectors
+	 * starting at firstSector: the latency of the first sector, then one
+	 * rotation time for each further sector and a track-to-track seek each
+	 * time the run moves onto a new track.
+	 *
+	 * @param firstSector
+	 *            the first sector of the run.
+	 * @param numSectors
+	 *            the number of sectors in the run.
+	 * @param writing
+	 *            whether the run is being written.
+	 */
+	public int computeLatency(int firstSector, int numSectors, boolean writing) {
+		int ticks = computeLatency(firstSector, writing);
+
+		for (int sector = firstSector + 1; sector < firstSector + numSectors; sector++) {
+			ticks += Statistics.RotationTime;
+			if (sector % SectorsPerTrack == 0) {
+				ticks += Statistics.SeekTime;
+			}
+		}
+		return ticks;
+	}
+
 	/**
 	 * Keep track of the most recently requested sector. So we can know what is
 	 * in the track buffer.
@@ -355,6 +412,6 @@ public class Disk implements VoidFunctionPtr {
 
 		mLastSector = newSector;
 
-		Debug.print('d', "Updating last sector = " + mLastSector + " ," + mBufferInit);
+		Debug.print('d', "Updating last sector = %d ,%d", mLastSector, mBufferInit);
 	}
 }
@@ -8,82 +8,6 @@
 package jnachos.machine;
 
 import jnachos.kern.*;
-import java.util.LinkedList;
-import java.util.ListIterator;
-
-/**
- * Pending Interrupt describes an interrupt that is scheduled to occur at some
- * time in the future
- */
-class PendingInterrupt {
-
-	/** The function (in the hardware device). */
-	private VoidFunctionPtr mHandler;
-
-	/** The argument to the function. */
-	private Object mArg;
-
-	/** When the interrupt is supposed to fire. */
-	private int mWhen;
-
-	/** Used for Debug printing */
-	private InterruptType mType;
-
-	/**
-	 * Default Constructor.
-	 * 
-	 * @param pFunc
-	 *            The call-back function
-	 * @param pArg
-	 *            The argument to the call-back function.
-	 * @param pTime
-	 *            The time that the interrupt should fire.
-	 * @param pKind
-	 *            The kind of interrupt.
-	 */
-	public PendingInterrupt(VoidFunctionPtr pFunc, Object pArg, int pTime, InterruptType pKind) {
-		mHandler = pFunc;
-		mArg = pArg;
-		mWhen = pTime;
-		mType = pKind;
-	}
-
-	/**
-	 * Gets the interrupt handler
-	 * 
-	 * @return The call-back function (interrupt handler)
-	 */
-	public VoidFunctionPtr getHandler() {
-		return mHandler;
-	}
-
-	/**
-	 * Gets the interrupt handler argument.
-	 * 
-	 * @return The interrupt handler argument
-	 */
-	public Object getArgument() {
-		return mArg;
-	}
-
-	/**
-	 * Gets the time when the interrupt should fire.
-	 * 
-	 * @return The time when the interrupt should fire.
-	 */
-	public int getWhen() {
-		return mWhen;
-	}
-
-	/**
-	 * Gets the type of interrupt
-	 * 
-	 * @return The type of interrupt
-	 */
-	public InterruptType getType() {
-		return mType;
-	}
-}
 
 /**
  * Data structures to emulate low-level interrupt hardware.
@@ -129,8 +53,8 @@ public class Interrupt {
 	/** Are interrupts enabled or disabled? */
 	private static boolean mEnabled;
 
-	/** The list of interrupts scheduled to occur in the future. */
-	private static LinkedList<PendingInterrupt> mPending;
+	/** The interrupts scheduled to occur in the future. */
+	private static PendingQueue mPending;
 
 	/** true if we are running an interrupt handler */
 	private static boolean mInHandler;
@@ -158,7 +82,7 @@ public class Interrupt {
 	 */
 	public static void init() {
 		mEnabled = false;
-		mPending = new LinkedList<PendingInterrupt>();
+		mPending = new PendingQueue();
 		mInHandler = false;
 		mYieldOnReturn = false;
 		mStatus = SystemMode;
@@ -170,11 +94,8 @@ public class Interrupt {
 	 * lsit.
 	 */
 	public static void killInterrupt() {
-		// while there are more interrupts
-		while (!mPending.isEmpty()) {
-			// remove the interrupt
-			mPending.remove();
-		}
+		// remove the interrupts
+		mPending.clear();
 
 		// set the list to null
 		mPending = null;
@@ -193,7 +114,9 @@ public class Interrupt {
 	 */
 	public static void changeLevel(boolean pOld, boolean pNow) {
 		mEnabled = pNow;
-		Debug.print('i', "\tinterrupts:" + pOld + "-> " + pNow);
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "\tinterrupts:" + pOld + "-> " + pNow);
+		}
 	}
 
 	/**
@@ -266,7 +189,13 @@ public class Interrupt {
 			Statistics.userTicks += Statistics.UserTick;
 		}
 
-		Debug.print('i', "\n== Tick " + Statistics.totalTicks + "==");
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "\n== Tick " + Statistics.totalTicks + "==");
+		} else if (mEnabled && !mYieldOnReturn
+				&& (mPending.isEmpty() || mPending.peek().getWhen() > Statistics.totalTicks)) {
+			// Nothing is due, so there is nothing more to do
+			return;
+		}
 
 		// check any pending interrupts are now ready to fire
 		// first, turn off interrupts (interrupt handlers run with interrupts
@@ -288,6 +217,40 @@ public class Interrupt {
 		}
 	}
 
+	/**
+	 * How many user instructions can run, one after another, before one of
+	 * them brings the clock to a pending interrupt: after each of them,
+	 * oneTick() would find nothing to do but advance the time. The basic
+	 * block engine runs that many without calling oneTick().
+	 *
+	 * @return the number of instructions, or 0 if every instruction has to
+	 *         be followed by oneTick().
+	 */
+	public static int quietInstructions() {
+		if (!mEnabled || mStatus != UserMode || mYieldOnReturn) {
+			return 0;
+		}
+		if (mPending.isEmpty()) {
+			return Integer.MAX_VALUE;
+		}
+
+		long gap = mPending.peek().getWhen() - Statistics.totalTicks - 1;
+		return gap < 0 ? 0 : (int) Math.min(gap / Statistics.UserTick, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Advance simulated time for user instructions that ran while nothing was
+	 * due, as oneTick() would have for each of them.
+	 *
+	 * @param pInstructions
+	 *            the number of instructions, no more than quietInstructions()
+	 *            allowed.
+	 */
+	public static void chargeUserTicks(int pInstructions) {
+		Statistics.totalTicks += (long) pInstructions * Statistics.UserTick;
+		Statistics.userTicks += (long) pInstructions * Statistics.UserTick;
+	}
+
 	/**
 	 * Called from within an interrupt handler, to cause a context switch (for
 	 * example, on a time slice) in the interrupted thread, when the handler
@@ -349,6 +312,7 @@ public class Interrupt {
 	public static void halt() {
 		System.out.println("Machine halting!\n\n");
 		Statistics.Print();
+		Profiler.print();
 		JNachos.cleanUp(); // Never returns.
 	}
 
@@ -356,7 +320,8 @@ public class Interrupt {
 	 * Arrange for the CPU to be interrupted when simulated time reaches "now +
 	 * when".
 	 *
-	 * Implementation: just put it on a sorted list.
+	 * Implementation: just put it in the queue of pending interrupts, after
+	 * any others due at the same time.
 	 *
 	 * NOTE: the Nachos kernel should not call this routine directly. Instead,
 	 * it is only called by the hardware device simulators.
@@ -370,16 +335,57 @@ public class Interrupt {
 	 *            occur
 	 * @param type
 	 *            the hardware device that generated the interrupt
+	 * @return the pending interrupt, which the device can cancel or reschedule
 	 */
-	public static void schedule(VoidFunctionPtr handler, Object arg, int fromNow, InterruptType type) {
-		int when = Statistics.totalTicks + fromNow;
+	public static PendingInterrupt schedule(VoidFunctionPtr handler, Object arg, int fromNow, InterruptType type) {
+		long when = Statistics.totalTicks + fromNow;
 		PendingInterrupt toOccur = new PendingInterrupt(handler, arg, when, type);
 
-		Debug.print('i', "Scheduling interrupt handler the " + intTypeNames[type.ordinal()] + " at time =" + when);
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "Scheduling interrupt handler the " + intTypeNames[type.ordinal()] + " at time =" + when);
+		}
+
+		assert (fromNow > 0);
+
+		mPending.add(toOccur);
+		return toOccur;
+	}
+
+	/**
+	 * Arrange for a scheduled interrupt to occur when simulated time reaches
+	 * "now + fromNow" instead, whether it is still pending or has already
+	 * occurred. It is ordered as though it were newly scheduled.
+	 *
+	 * @param toOccur
+	 *            the interrupt, as returned by schedule()
+	 * @param fromNow
+	 *            how far in the future (in simulated time) the interrupt is to
+	 *            occur
+	 */
+	public static void reschedule(PendingInterrupt toOccur, int fromNow) {
+		long when = Statistics.totalTicks + fromNow;
+
+		if (Debug.isEnabled('i')) {
+			Debug.print('i', "Rescheduling interrupt handler the " + intTypeNames[toOccur.getType().ordinal()]
+					+ " at time =" + when);
+		}
 
 		assert (fromNow > 0);
 
-		SortedInsert(toOccur, when);
+		mPending.remove(toOccur);
+		toOccur.setWhen(when);
+		mPending.add(toOccur);
+	}
+
+	/**
+	 * Cancel a scheduled interrupt, so that it does not occur.
+	 *
+	 * @param toOccur
+	 *            the interrupt, as returned by schedule()
+	 * @return false if the interrupt was no longer pending
+	 */
+	public static boolean cancel(PendingInterrupt toOccur) {
+		return mPending.remove(toOccur);
 	}
 
 	/**
@@ -396,7 +402,7 @@ public class Interrupt {
 	public static boolean checkIfDue(boolean advanceClock) {
 		// MachineStatus
 		int old = mStatus;
-		int when;
+		long when;
 
 		// interrupts need to be disabled, to invoke an interrupt handler
 		assert (mEnabled == false);
@@ -407,7 +413,7 @@ public class Interrupt {
 		if (mPending.isEmpty())
 			return false;
 
-		PendingInterrupt toOccur = mPending.removeFirst();
+		PendingInterrupt toOccur = mPending.peek();
 
 		if (advanceClock && toOccur.getWhen() > Statistics.totalTicks) { // advance
 																			// the
@@ -415,17 +421,17 @@ public class Interrupt {
 			Statistics.idleTicks += (toOccur.getWhen() - Statistics.totalTicks);
 			Statistics.totalTicks = toOccur.getWhen();
 		} else if (toOccur.getWhen() > Statistics.totalTicks) { // not time yet,
-																// put it back
-			mPending.addFirst(toOccur);
+																// leave it
 			return false;
 		}
 
 		// Check if there is nothing more to do, and if so, quit
-		if ((mStatus == IdleMode) && (toOccur.getType() == InterruptType.TimerInt) && mPending.isEmpty()) {
-			SortedInsert(toOccur, toOccur.getWhen());
+		if ((mStatus == IdleMode) && (toOccur.getType() == InterruptType.TimerInt) && mPending.size() == 1) {
 			return false;
 		}
 
+		mPending.poll();
+
 		Debug.print('i', "Invoking interrupt handler for the " + intTypeNames[toOccur.getType().ordinal()] + " at time "
 				+ toOccur.getWhen());
 
@@ -465,24 +471,4 @@ public class Interrupt {
 		System.out.println("End of pending interrupts\n");
 		System.out.flush();
 	}
-
-	/**
-	 * Inserts the pending interrupt into the list of pending interrupts in a
-	 * sorted manner.
-	 * 
-	 * @param pPending
-	 *            The interrupt to add to the list of pending interrupts
-	 * @param pWhen
-	 *            The time when the interrupt should be thrown.
-	 */
-	public static void SortedInsert(PendingInterrupt pPending, int pWhen) {
-		for (int i = 0; i < mPending.size(); i++) {
-			PendingInterrupt next = mPending.get(i);
-			if (next.getWhen() > pWhen) {
-				mPending.add(i, pPending);
-				return;
-			}
-		}
-		mPending.addLast(pPending);
-	}
 }
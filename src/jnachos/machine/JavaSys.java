@@ -9,6 +9,8 @@ package jnachos.machine;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Hashtable;
 import jnachos.kern.Debug;
 
@@ -117,9 +119,7 @@ public class JavaSys {
 		try {
 			RandomAccessFile raf = mOpenFiles.get(new Integer(fd));
 
-			int retVal = raf.read(buffer);
-
-			assert (retVal == nBytes);
+			raf.readFully(buffer, 0, nBytes);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -139,12 +139,14 @@ public class JavaSys {
 	public static int readPartial(int fd, byte[] buffer, int nBytes) {
 		int retVal = -1;
 		try {
-			assert (buffer.length == nBytes);
+			assert (buffer.length >= nBytes);
 			RandomAccessFile raf = mOpenFiles.get(new Integer(fd));
-			retVal = raf.read(buffer);
+			retVal = raf.read(buffer, 0, nBytes);
 
-			Debug.print('j', "length:" + raf.length());
-			assert (retVal == nBytes);
+			// at the end of the file nothing is available
+			if (retVal < 0) {
+				retVal = 0;
+			}
 			Debug.print('j', "Bytes Read:" + retVal + "\t" + nBytes);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -167,10 +169,111 @@ public class JavaSys {
 	public static void writeFile(int fd, byte[] buffer, int nBytes) {
 		try {
 			RandomAccessFile raf = mOpenFiles.get(new Integer(fd));
-			raf.write(buffer);
+			raf.write(buffer, 0, nBytes);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read from an open file at an absolute position into a buffer, without
+	 * moving the file pointer. Direct buffers are filled by the host without
+	 * an intermediate copy.
+	 * 
+	 * @param fd
+	 *            the file descriptor of the file to read from.
+	 * @param buffer
+	 *            the buffer to fill from its position.
+	 * @param position
+	 *            the location in the file to read from.
+	 * @return the number of bytes read, or -1 at the end of the file.
+	 */
+	public static int readAt(int fd, ByteBuffer buffer, long position) {
+		int retVal = -1;
+		try {
+			retVal = getChannel(fd).read(buffer, position);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Write a buffer to an open file at an absolute position, without moving
+	 * the file pointer.
+	 * 
+	 * @param fd
+	 *            the file descriptor of the file to write to.
+	 * @param buffer
+	 *            the buffer to drain from its position.
+	 * @param position
+	 *            the location in the file to write to.
+	 * @return the number of bytes written.
+	 */
+	public static int writeAt(int fd, ByteBuffer buffer, long position) {
+		int retVal = 0;
+		try {
+			FileChannel channel = getChannel(fd);
+			while (buffer.hasRemaining()) {
+				retVal += channel.write(buffer, position + retVal);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns the host channel of an open file. It shares the file pointer
+	 * with the file descriptor, and closing it closes the file.
+	 * 
+	 * @param fd
+	 *            the relevant file descriptor.
+	 */
+	public static FileChannel getChannel(int fd) {
+		RandomAccessFile raf = mOpenFiles.get(fd);
+		return raf.getChannel();
+	}
+
+	/**
+	 * Report the length of an open file.
+	 * 
+	 * @param fd
+	 *            the relevant file descriptor.
+	 * @return the length, or -1 if fd is not open or the host cannot tell.
+	 */
+	public static long length(int fd) {
+		RandomAccessFile raf = mOpenFiles.get(fd);
+
+		if (raf == null)
+			return -1;
+		long retVal = -1;
+		try {
+			retVal = raf.length();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Read whatever console input is available, without waiting for more.
+	 * 
+	 * @param buffer
+	 *            the buffer to read into.
+	 * @return the number of bytes read.
+	 */
+	public static int readConsole(byte[] buffer) {
+		int retVal = 0;
+		try {
+			int available = Math.min(System.in.available(), buffer.length);
+			if (available > 0) {
+				retVal = Math.max(0, System.in.read(buffer, 0, available));
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		return retVal;
 	}
 
 	/**
@@ -26,6 +26,11 @@ import jnachos.kern.*;
  * stored in memory), there is only one TLB (implemented in hardware). Thus the
  * TLB pointer should be considered as *read-only*, although the contents of the
  * TLB are free to be modified by the kernel software.
+ *
+ * With a TLB, mPageTable is the kernel's own page table for the running
+ * process, which it refills the TLB from; translate() never looks at it. The
+ * TLB records when each entry was last used, so that the kernel can replace
+ * the least recently used one.
  */
 public class MMU {
 
@@ -35,6 +40,15 @@ public class MMU {
 	 */
 	public static TranslationEntry[] mTlb;
 
+	/** When each TLB entry was last used, in TLB lookups. */
+	public static long[] mTlbLastUse;
+
+	/** The number of TLB lookups made, the clock for mTlbLastUse. */
+	private static long mTlbLookups;
+
+	/** The TLB entry that satisfied the last lookup, tried first. */
+	private static int mTlbLastHit;
+
 	/** The page table used by the currently running process. */
 	public static TranslationEntry mPageTable[];
 
@@ -54,38 +68,84 @@ public class MMU {
 
 	}
 
+	/** The exception types, indexed by ordinal, for decoding translate(). */
+	private static final ExceptionType[] Exceptions = ExceptionType.values();
+
 	/**
 	 * Translate a virtual address into a physical address, using either a page
 	 * table or a TLB. Check for alignment and all sorts of other errors, and if
 	 * everything is ok, set the use/dirty bits in the translation table entry,
-	 * and store the translated physical address in "physAddr". If there was an
-	 * error, returns the type of the exception.
+	 * and return the translated physical address. If there was an error,
+	 * returns a negative number that exceptionOf() turns into the type of the
+	 * exception.
+	 *
+	 * This is on the path of every simulated load, store and instruction
+	 * fetch, so it allocates nothing and only builds debugging messages when
+	 * the 'a' flag is on.
+	 * 
+	 * @param virtAddr
+	 *            the virtual address to translate
+	 * @param size
+	 *            the amount of memory being read or written
+	 * @param writing
+	 *            if TRUE, check the "read-only" bit in the TLB
+	 * @return the physical address, or a negative exception code
+	 */
+	public static int translate(int virtAddr, int size, boolean writing) {
+		return translate(virtAddr, size, writing, true);
+	}
+
+	/**
+	 * Translate a user address on behalf of the kernel, as when it copies a
+	 * system call's arguments in or out. It works as translate() does, but is
+	 * not counted in the TLB statistics, which measure user programs.
 	 * 
 	 * @param virtAddr
 	 *            the virtual address to translate
-	 * @param physAddr
-	 *            the place to store the physical address
 	 * @param size
 	 *            the amount of memory being read or written
 	 * @param writing
 	 *            if TRUE, check the "read-only" bit in the TLB
+	 * @return the physical address, or a negative exception code
 	 */
-	public static ExceptionType translate(int virtAddr, int[] physAddr, int size, boolean writing) {
+	public static int translateForKernel(int virtAddr, int size, boolean writing) {
+		return translate(virtAddr, size, writing, false);
+	}
+
+	/**
+	 * Does the work for translate() and translateForKernel().
+	 * 
+	 * @param pCount
+	 *            whether to count the lookup in the TLB statistics
+	 */
+	private static int translate(int virtAddr, int size, boolean writing, boolean pCount) {
 		int i = 0;
 		int vpn, offset;
 		TranslationEntry entry;
 		int pageFrame;
+		boolean debug = Debug.isEnabled('a');
 
-		Debug.print('a', "Translate 0x" + Integer.toHexString(virtAddr) + ", writing " + (writing ? "write" : "read"));
+		if (debug) {
+			Debug.print('a', "Translate 0x" + Integer.toHexString(virtAddr) + ", writing " + (writing ? "write" : "read"));
+		}
 
 		// check for alignment errors
 		if (((size == 4) && ((virtAddr & 0x3) != 0)) || ((size == 2) && ((virtAddr & 0x1) != 0))) {
-			Debug.print('a', "alignment problem at " + virtAddr + ", size " + size);
-			return ExceptionType.AddressErrorException;
+			if (debug) {
+				Debug.print('a', "alignment problem at " + virtAddr + ", size " + size);
+			}
+			return fault(ExceptionType.AddressErrorException);
 		}
 
-		// we must have either a TLB or a page table, but not both!
-		assert (mTlb == null || mPageTable == null);
+		// user addresses are never negative
+		if (virtAddr < 0) {
+			if (debug) {
+				Debug.print('a', "negative address " + virtAddr);
+			}
+			return fault(ExceptionType.AddressErrorException);
+		}
+
+		// we must have either a TLB or a page table
 		assert (mTlb != null || mPageTable != null);
 
 		// calculate the virtual page number, and offset within the page,
@@ -95,36 +155,56 @@ public class MMU {
 
 		if (mTlb == null) { // => page table => vpn is index into table
 			if (vpn >= mPageTableSize) {
-				Debug.print('a', "virtual page # " + virtAddr + " too large for page table size " + mPageTableSize);
-				return ExceptionType.AddressErrorException;
+				if (debug) {
+					Debug.print('a', "virtual page # " + virtAddr + " too large for page table size " + mPageTableSize);
+				}
+				return fault(ExceptionType.AddressErrorException);
 			} else if (!mPageTable[vpn].valid) {
-				Debug.print('a', "virtual page # " + virtAddr + "  too large for page table size " + mPageTableSize);
-				return ExceptionType.PageFaultException;
+				if (debug) {
+					Debug.print('a', "virtual page # " + virtAddr + " not valid in page table");
+				}
+				return fault(ExceptionType.PageFaultException);
 			}
 
 			entry = mPageTable[vpn];
 		}
 
 		else {
-			for (entry = null, i = 0; i < Machine.TLBSize; i++) {
-				if (mTlb[i].valid && (mTlb[i].virtualPage == vpn)) {
-					entry = mTlb[i]; // FOUND!
-					break;
+			// Successive lookups are mostly in the same page
+			i = mTlbLastHit;
+			if (!mTlb[i].valid || mTlb[i].virtualPage != vpn) {
+				for (i = 0; i < mTlb.length; i++) {
+					if (mTlb[i].valid && (mTlb[i].virtualPage == vpn)) {
+						break; // FOUND!
+					}
 				}
 			}
 
-			if (entry == null) { // not found
-				Debug.print('a', "*** no valid TLB entry found for this virtual page!\n");
-				return ExceptionType.PageFaultException; // really, this is a
-															// TLB fault,
-				// the page may be in memory,
-				// but not in the TLB
+			if (i == mTlb.length) { // not found
+				if (debug) {
+					Debug.print('a', "*** no valid TLB entry found for this virtual page!\n");
+				}
+				if (pCount) {
+					Statistics.numTlbMisses++;
+				}
+				return fault(ExceptionType.PageFaultException); // really, this
+																// is a TLB
+				// fault, the page may be in memory, but not in the TLB
+			}
+
+			if (pCount) {
+				Statistics.numTlbHits++;
 			}
+			entry = mTlb[i];
+			mTlbLastHit = i;
+			mTlbLastUse[i] = ++mTlbLookups;
 		}
 
 		if (entry.readOnly && writing) { // trying to write to a read-only page
-			Debug.print('a', virtAddr + " mapped read-only at " + i + " in TLB!\n");
-			return ExceptionType.ReadOnlyException;
+			if (debug) {
+				Debug.print('a', virtAddr + " mapped read-only at " + i + " in TLB!\n");
+			}
+			return fault(ExceptionType.ReadOnlyException);
 		}
 
 		pageFrame = entry.physicalPage;
@@ -132,8 +212,10 @@ public class MMU {
 		// if the pageFrame is too big, there is something really wrong!
 		// An invalid translation was loaded into the page table or TLB.
 		if (pageFrame >= Machine.NumPhysPages) {
-			Debug.print('a', "*** frame " + pageFrame + " > " + Machine.NumPhysPages);
-			return ExceptionType.BusErrorException;
+			if (debug) {
+				Debug.print('a', "*** frame " + pageFrame + " > " + Machine.NumPhysPages);
+			}
+			return fault(ExceptionType.BusErrorException);
 		}
 
 		entry.use = true; // set the use, dirty bits
@@ -142,11 +224,31 @@ public class MMU {
 			entry.dirty = true;
 		}
 
-		physAddr[0] = pageFrame * PageSize + offset;
+		int physAddr = pageFrame * PageSize + offset;
 
-		assert ((physAddr[0] >= 0) && ((physAddr[0] + size) <= Machine.MemorySize));
-		Debug.print('a', "phys addr = 0x" + Integer.toHexString(physAddr[0]));
+		assert ((physAddr >= 0) && ((physAddr + size) <= Machine.MemorySize));
+		if (debug) {
+			Debug.print('a', "phys addr = 0x" + Integer.toHexString(physAddr));
+		}
+
+		return physAddr;
+	}
+
+	/**
+	 * The exception a call to translate() raised.
+	 * 
+	 * @param pResult
+	 *            what translate() returned.
+	 * @return the exception, or NoException if the translation succeeded.
+	 */
+	public static ExceptionType exceptionOf(int pResult) {
+		return pResult >= 0 ? ExceptionType.NoException : Exceptions[-1 - pResult];
+	}
 
-		return ExceptionType.NoException;
+	/**
+	 * Encode an exception as a translate() result.
+	 */
+	private static int fault(ExceptionType pException) {
+		return -1 - pException.ordinal();
 	}
 }
@@ -9,6 +9,8 @@ package jnachos.machine;
 
 import jnachos.kern.*;
 
+import java.util.Arrays;
+
 /**
  *
  */
@@ -27,11 +29,23 @@ public class Machine {
 	public static boolean mUSE_TLB;
 	public static boolean mSingleStep;
 
+	// Run user code a basic block at a time, rather than through the
+	// instruction-at-a-time interpreter
+	public static boolean mUseBlocks = true;
+
+	// How many times a basic block is entered before it is compiled; 0 never
+	// compiles
+	public static int mCompileThreshold = 50;
+
 	// Set the page size equal to the disk sector size, for simplicity
 	public static final int PageSize = 128;
 	public static final int NumPhysPages = 16;
 	public static final int MemorySize = (NumPhysPages * PageSize);
-	public static final int TLBSize = 4; // if there is a TLB, make it small
+	public static int TLBSize = 4; // if there is a TLB, make it small
+
+	// What readMem returns when the read raised an exception; no 32-bit
+	// value read from memory can equal it
+	public static final long MemoryFault = Long.MIN_VALUE;
 
 	// Textual names of the exceptions that can be generated by user program
 	// execution, for debugging.
@@ -70,6 +84,16 @@ public class Machine {
 	// The registers in the CPU
 	public static int mRegisters[];
 
+	// The predecode cache: the decoded instruction in each word of main
+	// memory, valid from when it is first fetched until the word is written
+	private static Instruction[] mDecoded;
+	private static boolean[] mDecodedValid;
+
+	// The generation of the code in each frame, advanced whenever a decoded
+	// instruction in it is dropped, and the basic block starting at each word
+	static int[] mCodeGeneration;
+	private static BasicBlock[] mBlocks;
+
 	/**
 	 * The hardware timer. This class can throw interrupts at scheduable
 	 * intervals.
@@ -100,17 +124,28 @@ public class Machine {
 			mMainMemory[i] = 0;
 		}
 
+		// Create the predecode cache, empty
+		mDecoded = new Instruction[MemorySize / 4];
+		mDecodedValid = new boolean[MemorySize / 4];
+		for (int i = 0; i < mDecoded.length; i++) {
+			mDecoded[i] = new Instruction();
+		}
+		mCodeGeneration = new int[NumPhysPages];
+		mBlocks = new BasicBlock[MemorySize / 4];
+
 		// If we are using the TLB
 		if (mUSE_TLB) {
 			// Create a new TLB
 			MMU.mTlb = new TranslationEntry[TLBSize];
+			MMU.mTlbLastUse = new long[TLBSize];
 			for (int i = 0; i < TLBSize; i++) {
 				// Set the valid bits to false
+				MMU.mTlb[i] = new TranslationEntry();
 				MMU.mTlb[i].valid = false;
-
-				// Initialze the page table
-				MMU.mPageTable = null;
 			}
+
+			// Initialze the page table
+			MMU.mPageTable = null;
 		} else {
 			// Set both to null
 			MMU.mTlb = null;
@@ -138,9 +173,6 @@ public class Machine {
 	 * concurrently -- one for each thread executing user code.
 	 */
 	public static void run() {
-		// Storage for decoded instruction
-		Instruction instr = new Instruction();
-
 		if (Debug.isEnabled('m')) {
 			System.out.println(
 					"Starting process " + JNachos.getCurrentProcess().getName() + " at time " + Statistics.totalTicks);
@@ -151,10 +183,23 @@ public class Machine {
 
 		// Continuously execute user code
 		while (true) {
+			if (mUseBlocks && !mSingleStep) {
+				// Execute a basic block, or as much of one as can run before
+				// an interrupt is due; it updates the time itself
+				MipsSim.runBlock();
+				continue;
+			}
+			if (!mSingleStep) {
+				// Execute instructions up to the next interrupt, updating the
+				// time once for all of them
+				MipsSim.runInstructions();
+				continue;
+			}
+
 			// Execute one instruction
 			/// Machine.dumpState();
 
-			MipsSim.oneInstruction(instr);
+			MipsSim.oneInstruction();
 
 			// Update the time
 			Interrupt.oneTick();
@@ -175,7 +220,9 @@ public class Machine {
 	 */
 	public static int readRegister(int num) {
 		assert ((num >= 0) && (num < NumTotalRegs));
-		Debug.print('m', "ReadRegister " + num + ", value" + Machine.mRegisters[num]);
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "ReadRegister " + num + ", value" + Machine.mRegisters[num]);
+		}
 		return Machine.mRegisters[num];
 	}
 
@@ -189,7 +236,9 @@ public class Machine {
 	 */
 	public static void writeRegister(int num, int value) {
 		assert ((num >= 0) && (num < NumTotalRegs));
-		Debug.print('m', "WriteRegister " + num + ", value" + value);
+		if (Debug.isEnabled('m')) {
+			Debug.print('m', "WriteRegister " + num + ", value" + value);
+		}
 		Machine.mRegisters[num] = value;
 	}
 
@@ -204,55 +253,187 @@ public class Machine {
 	}
 
 	/**
-	 * Read "size" (1, 2, or 4) bytes of virtual memory at "addr" into the
-	 * location pointed to by "value".
+	 * Fetch the instruction at the PC. A word is only decoded the first time
+	 * it is executed; after that its decoded form comes from the predecode
+	 * cache until the word is written or its frame is reused.
 	 *
-	 * Returns FALSE if the translation step from virtual to physical memory
-	 * failed.
+	 * Returns null if the translation of the PC failed, after raising the
+	 * exception.
 	 *
-	 * "addr" -- the virtual address to read from "size" -- the number of bytes
-	 * to read (1, 2, or 4) "value" -- the place to write the result
+	 * @return the decoded instruction, or null
 	 */
-	public static Integer readMem(int addr, int size) {
-		Integer data = null;
-		ExceptionType exception;
-		int[] physicalAddress = new int[1];
+	static Instruction fetchInstruction() {
+		int pc = mRegisters[PCReg];
+		int physicalAddress = MMU.translate(pc, 4, false);
 
-		Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size " + size);
+		if (physicalAddress < 0) {
+			memoryFault(physicalAddress, pc);
+			return null;
+		}
 
-		exception = MMU.translate(addr, physicalAddress, size, false);
+		Instruction instr = decodedAt(physicalAddress);
 
-		if (exception != ExceptionType.NoException) {
-			if(exception == ExceptionType.PageFaultException){
-				raiseException(ExceptionType.PageFaultException, addr);
-			}else {
-				raiseException(ExceptionType.AddressErrorException, addr);
-			}
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Fetched PC " + Integer.toHexString(pc) + ", value " + Integer.toHexString(instr.value));
+		}
+
+		return instr;
+	}
+
+	/**
+	 * The decoded instruction in a word of main memory, decoding it if it is
+	 * not in the predecode cache.
+	 *
+	 * @param physicalAddress
+	 *            the physical address of the word.
+	 * @return the decoded instruction.
+	 */
+	private static Instruction decodedAt(int physicalAddress) {
+		int word = physicalAddress >> 2;
+		Instruction instr = mDecoded[word];
+		if (!mDecodedValid[word]) {
+			instr.value = MipsSim.wordToHost(
+					(mMainMemory[physicalAddress] << 24) + ((mMainMemory[physicalAddress + 1] & 0xFF) << 16)
+							+ ((mMainMemory[physicalAddress + 2] & 0xFF) << 8)
+							+ (mMainMemory[physicalAddress + 3] & 0xFF));
+			instr.decode();
+			mDecodedValid[word] = true;
+			read4++;
+		}
+		return instr;
+	}
+
+	/**
+	 * The basic block starting at the PC, found as its first instruction is
+	 * fetched. Blocks are built on first use and kept until the code in their
+	 * frame changes.
+	 *
+	 * Returns null if the translation of the PC failed, after raising the
+	 * exception.
+	 *
+	 * @return the block, or null
+	 */
+	static BasicBlock blockAt() {
+		int pc = mRegisters[PCReg];
+		int physicalAddress = MMU.translate(pc, 4, false);
+
+		if (physicalAddress < 0) {
+			memoryFault(physicalAddress, pc);
 			return null;
 		}
 
+		int frame = physicalAddress / PageSize;
+		BasicBlock block = mBlocks[physicalAddress >> 2];
+		if (block == null || block.mGeneration != mCodeGeneration[frame]) {
+			block = buildBlock(physicalAddress);
+			mBlocks[physicalAddress >> 2] = block;
+		}
+		return block;
+	}
+
+	/**
+	 * Decode a basic block: from a word to the first branch or jump and its
+	 * delay slot, the first trap, or the end of the frame, whichever comes
+	 * first.
+	 *
+	 * @param physicalAddress
+	 *            the physical address of the first instruction.
+	 * @return the block.
+	 */
+	private static BasicBlock buildBlock(int physicalAddress) {
+		int frameEnd = (physicalAddress / PageSize + 1) * PageSize;
+		Instruction[] instructions = new Instruction[(frameEnd - physicalAddress) / 4];
+		int length = 0;
+
+		for (int addr = physicalAddress; addr < frameEnd; addr += 4) {
+			Instruction instr = decodedAt(addr);
+			instructions[length++] = instr;
+			if (BasicBlock.isTrap(instr)) {
+				break;
+			}
+			if (BasicBlock.isBranch(instr)) {
+				// Take the delay slot too, if it is in this frame
+				if (addr + 4 < frameEnd) {
+					instructions[length++] = decodedAt(addr + 4);
+				}
+				break;
+			}
+		}
+
+		return new BasicBlock(physicalAddress, Arrays.copyOf(instructions, length),
+				mCodeGeneration[physicalAddress / PageSize]);
+	}
+
+	/**
+	 * Drop the decoded instructions of a frame from the predecode cache, and
+	 * with them its basic blocks. The kernel calls this whenever it puts new
+	 * contents in a frame, or writes into one directly rather than through
+	 * writeMem.
+	 *
+	 * @param pFrame
+	 *            the frame.
+	 */
+	public static void invalidateDecoded(int pFrame) {
+		int first = pFrame * PageSize / 4;
+		Arrays.fill(mDecodedValid, first, first + PageSize / 4, false);
+		mCodeGeneration[pFrame]++;
+	}
+
+	/**
+	 * Read "size" (1, 2, or 4) bytes of virtual memory at "addr".
+	 *
+	 * Returns MemoryFault if the translation step from virtual to physical
+	 * memory failed, after raising the exception. Every simulated load and
+	 * instruction fetch comes through here, so nothing is allocated and no
+	 * debugging message is built unless its flag is on.
+	 *
+	 * @param addr
+	 *            -- the virtual address to read from
+	 * @param size
+	 *            -- the number of bytes to read (1, 2, or 4)
+	 * @return the value read, or MemoryFault
+	 */
+	public static long readMem(int addr, int size) {
+		int data = 0;
+
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Reading VA " + Integer.toHexString(addr) + ", size " + size);
+		}
+
+		int physicalAddress = MMU.translate(addr, size, false);
+
+		if (physicalAddress < 0) {
+			memoryFault(physicalAddress, addr);
+			return MemoryFault;
+		}
+
+		if (Profiler.mEnabled) {
+			Profiler.load(addr);
+		}
+
 		switch (size) {
 		case 1:
-			data = new Integer(mMainMemory[physicalAddress[0]]);
+			data = mMainMemory[physicalAddress];
 			read1++;
-			/// new Integer(mMainMemory[addr]); //No descernable change
 			break;
 
 		case 2:
-			data = new Integer(MipsSim.shortToHost(
-					(mMainMemory[physicalAddress[0]] << 8) + (mMainMemory[physicalAddress[0] + 1] & 0xFF)));
+			data = MipsSim.shortToHost(
+					(mMainMemory[physicalAddress] << 8) + (mMainMemory[physicalAddress + 1] & 0xFF));
 			read2++;
 			break;
 
 		case 4:
-			data = new Integer(MipsSim.wordToHost(
-					(mMainMemory[physicalAddress[0]] << 24) + ((mMainMemory[physicalAddress[0] + 1] & 0xFF) << 16)
-							+ ((mMainMemory[physicalAddress[0] + 2] & 0xFF) << 8)
-							+ (mMainMemory[physicalAddress[0] + 3] & 0xFF)));
+			data = MipsSim.wordToHost(
+					(mMainMemory[physicalAddress] << 24) + ((mMainMemory[physicalAddress + 1] & 0xFF) << 16)
+							+ ((mMainMemory[physicalAddress + 2] & 0xFF) << 8)
+							+ (mMainMemory[physicalAddress + 3] & 0xFF));
 			read4++;
 
-			Debug.print('a', mMainMemory[physicalAddress[0]] + "," + mMainMemory[physicalAddress[0] + 1] + ","
-					+ mMainMemory[physicalAddress[0] + 2] + "," + mMainMemory[physicalAddress[0] + 3]);
+			if (Debug.isEnabled('a')) {
+				Debug.print('a', mMainMemory[physicalAddress] + "," + mMainMemory[physicalAddress + 1] + ","
+						+ mMainMemory[physicalAddress + 2] + "," + mMainMemory[physicalAddress + 3]);
+			}
 
 			break;
 
@@ -260,7 +441,9 @@ public class Machine {
 			assert (false);
 		}
 
-		Debug.print('a', "\tvalue read = " + Integer.toHexString(data));
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "\tvalue read = " + Integer.toHexString(data));
+		}
 
 		return data;
 	}
@@ -270,7 +453,8 @@ public class Machine {
 	 * memory at location "addr".
 	 *
 	 * Returns FALSE if the translation step from virtual to physical memory
-	 * failed.
+	 * failed, after raising the exception. Like readMem, this allocates
+	 * nothing.
 	 *
 	 * @param addr
 	 *            -- the virtual address to write to
@@ -281,49 +465,55 @@ public class Machine {
 	 */
 
 	public static boolean writeMem(int addr, int size, int value) {
-		ExceptionType exception;
-		int[] physicalAddress = new int[1];
-
-		Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size " + size + ", value " + value);
+		if (Debug.isEnabled('a')) {
+			Debug.print('a', "Writing VA " + Integer.toHexString(addr) + ", size " + size + ", value " + value);
+		}
 
-		exception = MMU.translate(addr, physicalAddress, size, true);
+		int physicalAddress = MMU.translate(addr, size, true);
 
-		if (exception != ExceptionType.NoException) {
-			if(exception == ExceptionType.PageFaultException){
-				Machine.raiseException(ExceptionType.PageFaultException, addr);
-			}else{
-				Machine.raiseException(ExceptionType.AddressErrorException, addr);
-			}
+		if (physicalAddress < 0) {
+			memoryFault(physicalAddress, addr);
 			return false;
 		}
 
+		if (Profiler.mEnabled) {
+			Profiler.store(addr);
+		}
+
+		// The word may hold an instruction that has been decoded
+		if (mDecodedValid[physicalAddress >> 2]) {
+			mDecodedValid[physicalAddress >> 2] = false;
+			mCodeGeneration[physicalAddress / PageSize]++;
+		}
+
 		switch (size) {
 		case 1:
-			// int res = MipsSim.shortToMachine(value);
-			mMainMemory[physicalAddress[0]] = (byte) (value);
+			mMainMemory[physicalAddress] = (byte) (value);
 			write1++;
 			break;
 
 		case 2:
 			int res1 = MipsSim.shortToMachine(value);// & 0xffff );
 
-			mMainMemory[physicalAddress[0]] = (byte) (res1 >>> 8);
-			mMainMemory[physicalAddress[0] + 1] = (byte) (res1);
+			mMainMemory[physicalAddress] = (byte) (res1 >>> 8);
+			mMainMemory[physicalAddress + 1] = (byte) (res1);
 			write2++;
 			break;
 
 		case 4:
 
 			int res2 = MipsSim.wordToMachine(value);
-			mMainMemory[physicalAddress[0]] = (byte) (res2 >>> 24);
-			mMainMemory[physicalAddress[0] + 1] = (byte) (res2 >>> 16);
-			mMainMemory[physicalAddress[0] + 2] = (byte) (res2 >>> 8);
-			mMainMemory[physicalAddress[0] + 3] = (byte) (res2);
-
-			Debug.print('d',
-					"Wrote: " + value + "\t" + mMainMemory[physicalAddress[0]] + ","
-							+ mMainMemory[physicalAddress[0] + 1] + "," + mMainMemory[physicalAddress[0] + 2] + ","
-							+ mMainMemory[physicalAddress[0] + 3]);
+			mMainMemory[physicalAddress] = (byte) (res2 >>> 24);
+			mMainMemory[physicalAddress + 1] = (byte) (res2 >>> 16);
+			mMainMemory[physicalAddress + 2] = (byte) (res2 >>> 8);
+			mMainMemory[physicalAddress + 3] = (byte) (res2);
+
+			if (Debug.isEnabled('d')) {
+				Debug.print('d',
+						"Wrote: " + value + "\t" + mMainMemory[physicalAddress] + ","
+								+ mMainMemory[physicalAddress + 1] + "," + mMainMemory[physicalAddress + 2] + ","
+								+ mMainMemory[physicalAddress + 3]);
+			}
 			write4++;
 			break;
 
@@ -334,6 +524,25 @@ public class Machine {
 		return true;
 	}
 
+	/**
+	 * Raise the exception for a failed translation of a load or store. Page
+	 * faults and writes to read-only pages go to the kernel as they are;
+	 * anything else is an address error.
+	 *
+	 * @param pResult
+	 *            what MMU.translate() returned.
+	 * @param pAddr
+	 *            the virtual address that failed.
+	 */
+	private static void memoryFault(int pResult, int pAddr) {
+		ExceptionType exception = MMU.exceptionOf(pResult);
+		if (exception == ExceptionType.PageFaultException || exception == ExceptionType.ReadOnlyException) {
+			raiseException(exception, pAddr);
+		} else {
+			raiseException(ExceptionType.AddressErrorException, pAddr);
+		}
+	}
+
 	// Translate an address, and check for
 	// alignment. Set the use and dirty bits in
 	// the translation entry appropriately,
@@ -345,6 +554,8 @@ public class Machine {
 	 *
 	 */
 	public static void raiseException(ExceptionType which, int badVAddr) {
+		// The kernel sees the time of the faulting instruction
+		MipsSim.chargeTicks();
 		Debug.print('m', "Exception: " + which);
 		Machine.mRegisters[BadVAddrReg] = badVAddr;
 		delayedLoad(0, 0); // finish anything in progress
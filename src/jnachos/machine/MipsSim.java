@@ -286,6 +286,193 @@ public class MipsSim {
 		}
 	}
 
+	/**
+	 * The number of instructions the basic block engine has run that have not
+	 * yet been added to the clock.
+	 */
+	private static int mUncharged;
+
+	/**
+	 * The most instructions runInstructions() runs before updating the time,
+	 * however far off the next interrupt is.
+	 */
+	private static final int MaxQuietRun = 10000;
+
+	/**
+	 * Execute user instructions one at a time, as many as can run before an
+	 * interrupt is due, and advance the time for all of them at once: the
+	 * interpreter's counterpart of runBlock(). The result is the same, tick
+	 * for tick, as following each of them with Interrupt.oneTick(); when an
+	 * interrupt is due, the next instruction is run the old way.
+	 */
+	public static void runInstructions() {
+		int quiet = Math.min(Interrupt.quietInstructions(), MaxQuietRun);
+		if (quiet == 0) {
+			oneInstruction();
+			Interrupt.oneTick();
+			return;
+		}
+
+		for (int i = 0; i < quiet; i++) {
+			if (!oneInstruction()) {
+				// The exception charged the instructions before this one
+				Interrupt.oneTick();
+				return;
+			}
+			mUncharged++;
+		}
+
+		chargeTicks();
+	}
+
+	/**
+	 * Execute user instructions from the basic block at the PC, as many as
+	 * can run before an interrupt is due, and advance the time for all of
+	 * them at once. The result is the same, tick for tick, as running them
+	 * through oneInstruction() and Interrupt.oneTick() one at a time: a
+	 * block stops early at an exception, at a jump out of it, or when its
+	 * code is written to, and when an interrupt is due the next instruction
+	 * is run the old way.
+	 *
+	 * With a page table, the instructions after the first are not fetched
+	 * through the MMU again; nothing but the kernel can change the
+	 * translation of the block's page, and the kernel only runs on an
+	 * exception or interrupt. With a TLB each fetch is still translated, to
+	 * keep its statistics and replacement order exactly as they were.
+	 *
+	 * A block entered Machine.mCompileThreshold times is compiled, and from
+	 * then on runs as a CompiledBlock.
+	 */
+	public static void runBlock() {
+		int quiet = Interrupt.quietInstructions();
+		if (quiet == 0) {
+			oneInstruction();
+			Interrupt.oneTick();
+			return;
+		}
+
+		int pc = Machine.mRegisters[Machine.PCReg];
+		BasicBlock block = Machine.blockAt();
+		if (block == null) {
+			// the fetch raised an exception
+			Interrupt.oneTick();
+			return;
+		}
+
+		if (block.mCompiled == null && Machine.mCompileThreshold > 0
+				&& ++block.mExecutions >= Machine.mCompileThreshold && !Debug.isEnabled('m')
+				&& !Profiler.mEnabled) {
+			block.mCompiled = CompiledBlock.compile(block);
+		}
+
+		// A compiled block may stop short of where the block would, at a step
+		// that does not fit; the instructions left are interpreted
+		int done = 0;
+		if (block.mCompiled != null) {
+			done = runCompiled(block, pc, quiet);
+		}
+		if (done >= 0) {
+			runInterpreted(block, pc, done, quiet);
+		}
+	}
+
+	/**
+	 * Run a block's decoded instructions one at a time, from one of them on,
+	 * then add them all to the clock.
+	 *
+	 * @param pBlock
+	 *            the block.
+	 * @param pBlockPc
+	 *            the virtual address of its first instruction.
+	 * @param pFirst
+	 *            the index of the instruction to start at.
+	 * @param pQuiet
+	 *            how many instructions of the block can run before an
+	 *            interrupt is due.
+	 */
+	private static void runInterpreted(BasicBlock pBlock, int pBlockPc, int pFirst, int pQuiet) {
+		Instruction[] instructions = pBlock.mInstructions;
+		int count = Math.min(instructions.length, pQuiet);
+		int pc = pBlockPc + pFirst * 4;
+
+		for (int i = pFirst; i < count; i++, pc += 4) {
+			if (Machine.mRegisters[Machine.PCReg] != pc
+					|| Machine.mCodeGeneration[pBlock.mFrame] != pBlock.mGeneration) {
+				break;
+			}
+			if (i > 0 && MMU.mTlb != null) {
+				int physicalAddress = MMU.translate(pc, 4, false);
+				assert (physicalAddress == pBlock.mStart + i * 4);
+			}
+
+			if (!execute(instructions[i])) {
+				// The exception charged the instructions before this one
+				Interrupt.oneTick();
+				return;
+			}
+			mUncharged++;
+		}
+
+		chargeTicks();
+	}
+
+	/**
+	 * Run a compiled block a step at a time, for as long as each step fits in
+	 * what is left of the block's run.
+	 *
+	 * @param pBlock
+	 *            the block.
+	 * @param pBlockPc
+	 *            the virtual address of its first instruction.
+	 * @param pQuiet
+	 *            how many instructions of the block can run before an
+	 *            interrupt is due.
+	 * @return the number of instructions run, or -1 if one raised an
+	 *         exception, after which the time has been updated.
+	 */
+	private static int runCompiled(BasicBlock pBlock, int pBlockPc, int pQuiet) {
+		int[] r = Machine.mRegisters;
+		int pc = pBlockPc;
+		int done = 0;
+
+		for (CompiledBlock.Step step : pBlock.mCompiled.mSteps) {
+			if (done + step.mLength > pQuiet || r[Machine.PCReg] != pc
+					|| Machine.mCodeGeneration[pBlock.mFrame] != pBlock.mGeneration
+					|| (step.mLength > 1 && r[Machine.NextPCReg] != pc + 4)) {
+				break;
+			}
+			if (MMU.mTlb != null) {
+				for (int i = (done == 0 ? 1 : 0); i < step.mLength; i++) {
+					int physicalAddress = MMU.translate(pc + i * 4, 4, false);
+					assert (physicalAddress == pBlock.mStart + (done + i) * 4);
+				}
+			}
+
+			if (!step.run(r)) {
+				// The exception charged the instructions before this one
+				Interrupt.oneTick();
+				return -1;
+			}
+			mUncharged += step.mLength;
+			done += step.mLength;
+			pc += step.mLength * 4;
+		}
+
+		return done;
+	}
+
+	/**
+	 * Add the instructions the basic block engine has run to the clock. This
+	 * is done before the kernel is entered on an exception, so that it sees
+	 * the time the instruction raising it would have seen.
+	 */
+	static void chargeTicks() {
+		if (mUncharged > 0) {
+			Interrupt.chargeUserTicks(mUncharged);
+			mUncharged = 0;
+		}
+	}
+
 	/**
 	 * Execute one instruction from a user-level program
 	 *
@@ -298,29 +485,41 @@ public class MipsSim {
 	 *
 	 * This routine is re-entrant, in that it can be called multiple times
 	 * concurrently -- one for each thread executing user code. We get
-	 * re-entrancy by never caching any data -- we always re-start the
+	 * re-entrancy by never caching any data, other than the decoded
+	 * instructions that Machine keeps in step with memory -- we always re-start the
 	 * simulation from scratch each time we are called (or after trapping back
 	 * to the Nachos kernel on an exception or interrupt), and we always store
 	 * all data back to the Machine Machine.mRegisters and memory before
 	 * leaving. This allows the Nachos kernel to control our behavior by
 	 * controlling the contents of memory, the translation table, and the
 	 * register set.
+	 *
+	 * Returns false if the instruction raised an exception.
 	 */
-	public static void oneInstruction(Instruction instr) {
+	public static boolean oneInstruction() {
+		// Fetch instruction, decoded
+		Instruction instr = Machine.fetchInstruction();
+		if (instr == null) {
+			return false; // exception occurred
+		}
+
+		return execute(instr);
+	}
 
+	/**
+	 * Execute a decoded instruction, the one at the PC. This is the whole of
+	 * an instruction's work except for fetching it, shared by
+	 * oneInstruction() and the basic block engine.
+	 *
+	 * @param instr
+	 *            the instruction.
+	 * @return false if the instruction raised an exception.
+	 */
+	static boolean execute(Instruction instr) {
 		int nextLoadReg = 0;
 		int nextLoadValue = 0; // record delayed load operation, to apply in the
 								// future
 
-		// Fetch instruction
-		Integer raw = (Integer) Machine.readMem(Machine.mRegisters[Machine.PCReg], 4);
-		if (raw == null) {
-			return; // exception occurred
-		}
-
-		instr.value = raw.intValue();
-		instr.decode();
-
 		if (Debug.isEnabled('m')) {
 			OpString str = opStrings[(char) instr.opCode];
 			assert (instr.opCode <= MaxOpcode);
@@ -330,12 +529,16 @@ public class MipsSim {
 			Debug.print('a', "\n");
 		}
 
+		if (Profiler.mEnabled) {
+			Profiler.instruction(Machine.mRegisters[Machine.PCReg], instr.opCode);
+		}
+
 		// Compute next pc, but don't install in case there's an error or
 		// branch.
 		int pcAfter = Machine.mRegisters[Machine.NextPCReg] + 4;
 		int sum, diff, tmp, value;
 		int rs, rt, imm;
-		Integer result;
+		long result;
 
 		// Execute the instruction (cf. Kane's book)
 		switch (instr.opCode) {
@@ -345,7 +548,7 @@ public class MipsSim {
 			if (!(((Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt]) & SIGN_BIT) != 0)
 					&& (((Machine.mRegisters[instr.rs] ^ sum) & SIGN_BIT) != 0)) {
 				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
+				return false;
 			}
 			Machine.mRegisters[instr.rd] = sum;
 			break;
@@ -355,7 +558,7 @@ public class MipsSim {
 			if (!(((Machine.mRegisters[instr.rs] ^ instr.extra) & SIGN_BIT) != 0)
 					&& (((instr.extra ^ sum) & SIGN_BIT) != 0)) {
 				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
+				return false;
 			}
 
 			Machine.mRegisters[instr.rt] = sum;
@@ -461,11 +664,11 @@ public class MipsSim {
 		case OP_LBU:
 			tmp = Machine.mRegisters[instr.rs] + instr.extra;
 			result = Machine.readMem(tmp, 1);
-			if (result == null) {
-				return;
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
 
-			value = result.intValue();
+			value = (int) result;
 
 			if (((value & 0x80) != 0) && (instr.opCode == OP_LB)) {
 				value |= 0xffffff00;
@@ -481,13 +684,13 @@ public class MipsSim {
 			tmp = Machine.mRegisters[instr.rs] + instr.extra;
 			if ((tmp & 0x1) != 0) {
 				Machine.raiseException(ExceptionType.AddressErrorException, tmp);
-				return;
+				return false;
 			}
 			result = Machine.readMem(tmp, 2);
-			if (result == null) {
-				return;
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
-			value = result.intValue();
+			value = (int) result;
 
 			if (((value & 0x8000) != 0) && (instr.opCode == OP_LH)) {
 				value |= 0xffff0000;
@@ -500,7 +703,9 @@ public class MipsSim {
 			break;
 
 		case OP_LUI:
-			Debug.print('m', "Executing: LUI r" + instr.rt + ", " + instr.extra);
+			if (Debug.isEnabled('m')) {
+				Debug.print('m', "Executing: LUI r" + instr.rt + ", " + instr.extra);
+			}
 			Machine.mRegisters[instr.rt] = instr.extra << 16;
 			break;
 
@@ -508,14 +713,14 @@ public class MipsSim {
 			tmp = Machine.mRegisters[instr.rs] + instr.extra;
 			if ((tmp & 0x3) != 0) {
 				Machine.raiseException(ExceptionType.AddressErrorException, tmp);
-				return;
+				return false;
 			}
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
-				return;
+			result = Machine.readMem(tmp, 4);
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
-			value = result.intValue();
+			value = (int) result;
 
 			nextLoadReg = instr.rt;
 			nextLoadValue = value;
@@ -528,11 +733,11 @@ public class MipsSim {
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
-				return;
+			result = Machine.readMem(tmp, 4);
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
-			value = result.intValue();
+			value = (int) result;
 
 			if (Machine.mRegisters[Machine.LoadReg] == instr.rt) {
 				nextLoadValue = Machine.mRegisters[Machine.LoadValueReg];
@@ -566,11 +771,11 @@ public class MipsSim {
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem(tmp, 4);
-			if (result == null) {
-				return;
+			result = Machine.readMem(tmp, 4);
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
-			value = result.intValue();
+			value = (int) result;
 			if (Machine.mRegisters[Machine.LoadReg] == instr.rt) {
 				nextLoadValue = Machine.mRegisters[Machine.LoadValueReg];
 			} else {
@@ -639,13 +844,13 @@ public class MipsSim {
 
 		case OP_SB:
 			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 1, Machine.mRegisters[instr.rt])) {
-				return;
+				return false;
 			}
 			break;
 
 		case OP_SH:
 			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 2, Machine.mRegisters[instr.rt])) {
-				return;
+				return false;
 			}
 			break;
 
@@ -718,7 +923,7 @@ public class MipsSim {
 			if ((((Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt]) & SIGN_BIT) != 0)
 					&& (((Machine.mRegisters[instr.rs] ^ diff) & SIGN_BIT) != 0)) {
 				Machine.raiseException(ExceptionType.OverflowException, 0);
-				return;
+				return false;
 			}
 			Machine.mRegisters[instr.rd] = diff;
 			break;
@@ -735,7 +940,7 @@ public class MipsSim {
 			// instr.extra));
 			// System.out.println(Machine.mRegisters[instr.rt]);
 			if (!Machine.writeMem((Machine.mRegisters[instr.rs] + instr.extra), 4, Machine.mRegisters[instr.rt])) {
-				return;
+				return false;
 			}
 			break;
 
@@ -745,11 +950,11 @@ public class MipsSim {
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 
-			result = (Integer) Machine.readMem((tmp & ~0x3), 4);
-			if (result == null) {
-				return;
+			result = Machine.readMem((tmp & ~0x3), 4);
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
-			value = result.intValue();
+			value = (int) result;
 			switch (tmp & 0x3) {
 			case 0:
 				value = Machine.mRegisters[instr.rt];
@@ -769,7 +974,7 @@ public class MipsSim {
 			}
 
 			if (!Machine.writeMem((tmp & ~0x3), 4, value)) {
-				return;
+				return false;
 			}
 			break;
 
@@ -780,10 +985,10 @@ public class MipsSim {
 			// fail (I think) if the other cases are ever exercised.
 			assert ((tmp & 0x3) == 0);
 			result = Machine.readMem((tmp & ~0x3), 4);
-			if (result == null) {
-				return;
+			if (result == Machine.MemoryFault) {
+				return false;
 			}
-			value = result.intValue();
+			value = (int) result;
 			switch (tmp & 0x3) {
 			case 0:
 				value = (value & 0xffffff) | (Machine.mRegisters[instr.rt] << 24);
@@ -803,13 +1008,13 @@ public class MipsSim {
 			}
 
 			if (!Machine.writeMem((tmp & ~0x3), 4, value)) {
-				return;
+				return false;
 			}
 			break;
 
 		case OP_SYSCALL:
 			Machine.raiseException(ExceptionType.SyscallException, 0);
-			return;
+			return false;
 
 		case OP_XOR:
 			Machine.mRegisters[instr.rd] = Machine.mRegisters[instr.rs] ^ Machine.mRegisters[instr.rt];
@@ -822,7 +1027,7 @@ public class MipsSim {
 		case OP_RES:
 		case OP_UNIMP:
 			Machine.raiseException(ExceptionType.IllegalInstrException, 0);
-			return;
+			return false;
 
 		default:
 			assert (false);
@@ -842,6 +1047,7 @@ public class MipsSim {
 		// are jumping into lala-land
 		Machine.mRegisters[Machine.PCReg] = Machine.mRegisters[Machine.NextPCReg];
 		Machine.mRegisters[Machine.NextPCReg] = pcAfter;
+		return true;
 	}
 
 	/**
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation 
+ * of liability and disclaimer of warranty provisions.
+ *  
+ *  Created by Patrick McSweeney on 12/5/08.
+ */
+package jnachos.machine;
+
+import jnachos.kern.*;
+
+/**
+ * Pending Interrupt describes an interrupt that is scheduled to occur at some
+ * time in the future
+ */
+class PendingInterrupt {
+
+	/** The function (in the hardware device). */
+	private VoidFunctionPtr mHandler;
+
+	/** The argument to the function. */
+	private Object mArg;
+
+	/** When the interrupt is supposed to fire. */
+	private long mWhen;
+
+	/** Used for Debug printing */
+	private InterruptType mType;
+
+	/** Where the interrupt is in the PendingQueue, or -1 if it is not pending. */
+	int mIndex = -1;
+
+	/** The order in which the interrupt was scheduled, among those due together. */
+	long mSeq;
+
+	/**
+	 * Default Constructor.
+	 * 
+	 * @param pFunc
+	 *            The call-back function
+	 * @param pArg
+	 *            The argument to the call-back function.
+	 * @param pTime
+	 *            The time that the interrupt should fire.
+	 * @param pKind
+	 *            The kind of interrupt.
+	 */
+	public PendingInterrupt(VoidFunctionPtr pFunc, Object pArg, long pTime, InterruptType pKind) {
+		mHandler = pFunc;
+		mArg = pArg;
+		mWhen = pTime;
+		mType = pKind;
+	}
+
+	/**
+	 * Gets the interrupt handler
+	 * 
+	 * @return The call-back function (interrupt handler)
+	 */
+	public VoidFunctionPtr getHandler() {
+		return mHandler;
+	}
+
+	/**
+	 * Gets the interrupt handler argument.
+	 * 
+	 * @return The interrupt handler argument
+	 */
+	public Object getArgument() {
+		return mArg;
+	}
+
+	/**
+	 * Gets the time when the interrupt should fire.
+	 * 
+	 * @return The time when the interrupt should fire.
+	 */
+	public long getWhen() {
+		return mWhen;
+	}
+
+	/**
+	 * Sets the time when the interrupt should fire. It must not be pending.
+	 * 
+	 * @param pWhen
+	 *            The time when the interrupt should fire.
+	 */
+	void setWhen(long pWhen) {
+		assert (mIndex == -1);
+		mWhen = pWhen;
+	}
+
+	/**
+	 * Gets the type of interrupt
+	 * 
+	 * @return The type of interrupt
+	 */
+	public InterruptType getType() {
+		return mType;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+/**
+ * The interrupts scheduled to occur in the future, in the order they will
+ * occur: a binary heap on the time each is due, with interrupts due at the
+ * same time kept in the order they were scheduled. Adding, removing, and
+ * moving an interrupt take time logarithmic in the number pending.
+ *
+ * Each PendingInterrupt records where in the heap it is, so that one can be
+ * cancelled or rescheduled without searching for it.
+ */
+class PendingQueue {
+	/** The heap, in mHeap[0] to mHeap[mSize - 1]. */
+	private PendingInterrupt[] mHeap = new PendingInterrupt[16];
+
+	/** The number of interrupts pending. */
+	private int mSize;
+
+	/** The order number given to the next interrupt added. */
+	private long mNextSeq;
+
+	/**
+	 * Returns true if no interrupts are pending.
+	 */
+	boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	/**
+	 * Returns the number of interrupts pending.
+	 */
+	int size() {
+		return mSize;
+	}
+
+	/**
+	 * The interrupt that will occur first.
+	 *
+	 * @return the interrupt, or null if none is pending.
+	 */
+	PendingInterrupt peek() {
+		return mSize == 0 ? null : mHeap[0];
+	}
+
+	/**
+	 * Add an interrupt. It occurs after any already pending for the same time.
+	 *
+	 * @param pPending
+	 *            the interrupt, not already pending.
+	 */
+	void add(PendingInterrupt pPending) {
+		assert (pPending.mIndex == -1);
+		if (mSize == mHeap.length) {
+			PendingInterrupt[] heap = new PendingInterrupt[mHeap.length * 2];
+			System.arraycopy(mHeap, 0, heap, 0, mSize);
+			mHeap = heap;
+		}
+
+		pPending.mSeq = mNextSeq++;
+		mHeap[mSize] = pPending;
+		pPending.mIndex = mSize;
+		mSize++;
+		siftUp(pPending.mIndex);
+	}
+
+	/**
+	 * Remove the interrupt that will occur first.
+	 *
+	 * @return the interrupt, or null if none is pending.
+	 */
+	PendingInterrupt poll() {
+		if (mSize == 0) {
+			return null;
+		}
+		PendingInterrupt first = mHeap[0];
+		remove(first);
+		return first;
+	}
+
+	/**
+	 * Remove an interrupt.
+	 *
+	 * @param pPending
+	 *            the interrupt.
+	 * @return false if it was not pending.
+	 */
+	boolean remove(PendingInterrupt pPending) {
+		int index = pPending.mIndex;
+		if (index == -1) {
+			return false;
+		}
+		assert (mHeap[index] == pPending);
+
+		mSize--;
+		PendingInterrupt last = mHeap[mSize];
+		mHeap[mSize] = null;
+		pPending.mIndex = -1;
+
+		if (index < mSize) {
+			mHeap[index] = last;
+			last.mIndex = index;
+			siftDown(index);
+			siftUp(last.mIndex);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove every pending interrupt.
+	 */
+	void clear() {
+		for (int i = 0; i < mSize; i++) {
+			mHeap[i].mIndex = -1;
+			mHeap[i] = null;
+		}
+		mSize = 0;
+	}
+
+	/**
+	 * Whether one interrupt occurs before another.
+	 */
+	private static boolean before(PendingInterrupt pA, PendingInterrupt pB) {
+		if (pA.getWhen() != pB.getWhen()) {
+			return pA.getWhen() < pB.getWhen();
+		}
+		return pA.mSeq < pB.mSeq;
+	}
+
+	/**
+	 * Move an interrupt up the heap past those it occurs before.
+	 */
+	private void siftUp(int pIndex) {
+		PendingInterrupt pending = mHeap[pIndex];
+		while (pIndex > 0) {
+			int parent = (pIndex - 1) / 2;
+			if (!before(pending, mHeap[parent])) {
+				break;
+			}
+			mHeap[pIndex] = mHeap[parent];
+			mHeap[pIndex].mIndex = pIndex;
+			pIndex = parent;
+		}
+		mHeap[pIndex] = pending;
+		pending.mIndex = pIndex;
+	}
+
+	/**
+	 * Move an interrupt down the heap past those that occur before it.
+	 */
+	private void siftDown(int pIndex) {
+		PendingInterrupt pending = mHeap[pIndex];
+		while (true) {
+			int child = 2 * pIndex + 1;
+			if (child >= mSize) {
+				break;
+			}
+			if (child + 1 < mSize && before(mHeap[child + 1], mHeap[child])) {
+				child++;
+			}
+			if (!before(mHeap[child], pending)) {
+				break;
+			}
+			mHeap[pIndex] = mHeap[child];
+			mHeap[pIndex].mIndex = pIndex;
+			pIndex = child;
+		}
+		mHeap[pIndex] = pending;
+		pending.mIndex = pIndex;
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 1992-1993 The Regents of the University of California.
+ * All rights reserved.  See copyright.h for copyright notice and limitation
+ * of liability and disclaimer of warranty provisions.
+ */
+package jnachos.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts what user programs do, to find out where their time goes: how many
+ * times the instruction at each virtual PC is executed, how many of each
+ * opcode, how many loads and stores touch each virtual page, and how many of
+ * each system call each process makes. The counts are printed when the
+ * machine halts.
+ *
+ * Profiling is off unless turned on from the command line (-prof). While it
+ * is on, hot blocks are not compiled, so that every instruction is counted as
+ * it is executed; what the machine computes, including the statistics, is
+ * unchanged. An instruction that raises an exception is counted each time it
+ * is tried, as it is charged a tick each time.
+ */
+public class Profiler {
+	/** Print each table, sorted by count. */
+	public static final int Flat = 1;
+
+	/** Print one "frame;frame count" line per counter, for flame graphs. */
+	public static final int Collapsed = 2;
+
+	/** The number of PCs the flat profile lists. */
+	public static final int TopPCs = 20;
+
+	/** How to print the profile, or 0 if profiling is off. */
+	private static int mFormat;
+
+	/** True if profiling is on. */
+	static boolean mEnabled;
+
+	/** The times the instruction at each word of virtual memory was executed. */
+	private static long[] mPCCounts = new long[0];
+
+	/** The times each opcode was executed. */
+	private static long[] mOpCounts = new long[MipsSim.MaxOpcode + 1];
+
+	/** The loads from each virtual page. */
+	private static long[] mPageLoads = new long[0];
+
+	/** The stores to each virtual page. */
+	private static long[] mPageStores = new long[0];
+
+	/** The system calls each process made, by process then call. */
+	private static Map<String, Map<String, long[]>> mSystemCalls = new TreeMap<String, Map<String, long[]>>();
+
+	/**
+	 * Turn profiling on.
+	 *
+	 * @param pFormat
+	 *            how to print the profile: Flat or Collapsed.
+	 */
+	public static void enable(int pFormat) {
+		assert (pFormat == Flat || pFormat == Collapsed);
+		mFormat = pFormat;
+		mEnabled = true;
+	}
+
+	/**
+	 * Whether profiling is on.
+	 */
+	public static boolean isEnabled() {
+		return mEnabled;
+	}
+
+	/**
+	 * Count an instruction about to be executed.
+	 *
+	 * @param pPC
+	 *            the virtual address of the instruction.
+	 * @param pOpCode
+	 *            its opcode.
+	 */
+	static void instruction(int pPC, int pOpCode) {
+		int word = pPC >>> 2;
+		if (word >= mPCCounts.length) {
+			mPCCounts = grow(mPCCounts, word);
+		}
+		mPCCounts[word]++;
+		mOpCounts[pOpCode]++;
+	}
+
+	/**
+	 * Count a load from user memory.
+	 *
+	 * @param pAddr
+	 *            the virtual address read.
+	 */
+	static void load(int pAddr) {
+		int page = pAddr / Machine.PageSize;
+		if (page >= mPageLoads.length) {
+			mPageLoads = grow(mPageLoads, page);
+		}
+		mPageLoads[page]++;
+	}
+
+	/**
+	 * Count a store to user memory.
+	 *
+	 * @param pAddr
+	 *            the virtual address written.
+	 */
+	static void store(int pAddr) {
+		int page = pAddr / Machine.PageSize;
+		if (page >= mPageStores.length) {
+			mPageStores = grow(mPageStores, page);
+		}
+		mPageStores[page]++;
+	}
+
+	/**
+	 * Count a system call.
+	 *
+	 * @param pProcess
+	 *            the process that made it.
+	 * @param pCall
+	 *            the name of the call.
+	 */
+	public static void systemCall(String pProcess, String pCall) {
+		Map<String, long[]> calls = mSystemCalls.get(pProcess);
+		if (calls == null) {
+			calls = new TreeMap<String, long[]>();
+			mSystemCalls.put(pProcess, calls);
+		}
+
+		long[] count = calls.get(pCall);
+		if (count == null) {
+			count = new long[1];
+			calls.put(pCall, count);
+		}
+		count[0]++;
+	}
+
+	/**
+	 * A counter array big enough to hold an index, twice as big as it was at
+	 * least.
+	 */
+	private static long[] grow(long[] pCounts, int pIndex) {
+		return Arrays.copyOf(pCounts, Math.max(pIndex + 1, pCounts.length * 2));
+	}
+
+	/**
+	 * Print the profile, if profiling is on, when the machine halts.
+	 */
+	public static void print() {
+		if (!mEnabled) {
+			return;
+		}
+
+		if (mFormat == Collapsed) {
+			printCollapsed();
+		} else {
+			printFlat();
+		}
+	}
+
+	/**
+	 * Print each table: the hottest PCs, then the opcodes, then the pages,
+	 * each sorted by count, and the system calls by process.
+	 */
+	private static void printFlat() {
+		System.out.println("Profile: hottest PCs");
+		List<Integer> pcs = sortedIndices(mPCCounts);
+		for (int i = 0; i < pcs.size() && i < TopPCs; i++) {
+			int word = pcs.get(i);
+			System.out.println("\t0x" + Integer.toHexString(word << 2) + "\t" + mPCCounts[word]);
+		}
+
+		System.out.println("Profile: opcodes");
+		for (int op : sortedIndices(mOpCounts)) {
+			System.out.println("\t" + MipsSim.opStrings[op].string + "\t" + mOpCounts[op]);
+		}
+
+		System.out.println("Profile: loads and stores by virtual page");
+		for (int page = 0; page < Math.max(mPageLoads.length, mPageStores.length); page++) {
+			long loads = page < mPageLoads.length ? mPageLoads[page] : 0;
+			long stores = page < mPageStores.length ? mPageStores[page] : 0;
+			if (loads != 0 || stores != 0) {
+				System.out.println("\tpage " + page + "\tloads " + loads + "\tstores " + stores);
+			}
+		}
+
+		System.out.println("Profile: system calls by process");
+		for (Map.Entry<String, Map<String, long[]>> process : mSystemCalls.entrySet()) {
+			for (Map.Entry<String, long[]> call : process.getValue().entrySet()) {
+				System.out.println("\t" + process.getKey() + "\t" + call.getKey() + "\t" + call.getValue()[0]);
+			}
+		}
+	}
+
+	/**
+	 * Print every counter as a stack of what it counts and its count.
+	 */
+	private static void printCollapsed() {
+		for (int word = 0; word < mPCCounts.length; word++) {
+			if (mPCCounts[word] != 0) {
+				System.out.println("pc;0x" + Integer.toHexString(word << 2) + " " + mPCCounts[word]);
+			}
+		}
+		for (int op = 0; op < mOpCounts.length; op++) {
+			if (mOpCounts[op] != 0) {
+				System.out.println("opcode;" + MipsSim.opStrings[op].string + " " + mOpCounts[op]);
+			}
+		}
+		for (int page = 0; page < mPageLoads.length; page++) {
+			if (mPageLoads[page] != 0) {
+				System.out.println("page;" + page + ";load " + mPageLoads[page]);
+			}
+		}
+		for (int page = 0; page < mPageStores.length; page++) {
+			if (mPageStores[page] != 0) {
+				System.out.println("page;" + page + ";store " + mPageStores[page]);
+			}
+		}
+		for (Map.Entry<String, Map<String, long[]>> process : mSystemCalls.entrySet()) {
+			for (Map.Entry<String, long[]> call : process.getValue().entrySet()) {
+				System.out.println("syscall;" + process.getKey() + ";" + call.getKey() + " " + call.getValue()[0]);
+			}
+		}
+	}
+
+	/**
+	 * The indices of the non-zero counts, highest count first, and lowest
+	 * index first among equal counts.
+	 */
+	private static List<Integer> sortedIndices(final long[] pCounts) {
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i < pCounts.length; i++) {
+			if (pCounts[i] != 0) {
+				indices.add(i);
+			}
+		}
+
+		Collections.sort(indices, new Comparator<Integer>() {
+			public int compare(Integer pA, Integer pB) {
+				if (pCounts[pA] != pCounts[pB]) {
+					return pCounts[pA] > pCounts[pB] ? -1 : 1;
+				}
+				return pA - pB;
+			}
+		});
+		return indices;
+	}
+}
@@ -36,23 +36,34 @@ public class Statistics {
 	// many user instructions executed, etc.
 	//
 	// The fields in this class are public to make it easier to update.
+	// They are 64 bits wide, so that long runs do not wrap the clock.
 
-	public static int totalTicks; // Total time running Nachos
-	public static int idleTicks; // Time spent idle (no threads to run)
-	public static int systemTicks; // Time spent executing system code
-	public static int userTicks; // Time spent executing user code
+	public static long totalTicks; // Total time running Nachos
+	public static long idleTicks; // Time spent idle (no threads to run)
+	public static long systemTicks; // Time spent executing system code
+	public static long userTicks; // Time spent executing user code
 	// (this is also equal to # of
 	// user instructions executed)
 
-	public static int numDiskReads; // number of disk read requests
-	public static int numDiskWrites; // number of disk write requests
-	public static int numConsoleCharsRead; // number of characters read from the
+	public static long numDiskReads; // number of disk read requests
+	public static long numDiskWrites; // number of disk write requests
+	public static long numConsoleCharsRead; // number of characters read from the
 											// keyboard
-	public static int numConsoleCharsWritten; // number of characters written to
+	public static long numConsoleCharsWritten; // number of characters written to
 												// the display
-	public static int numPageFaults; // number of virtual memory page faults
-	public static int numPacketsSent; // number of packets sent over the network
-	public static int numPacketsRecvd; // number of packets received over the
+	public static long numPageFaults; // number of virtual memory page faults
+	public static long numPageEvictions; // number of pages evicted from memory
+	public static long numPageWritebacks; // number of dirty pages written to
+											// swap
+	public static long numCopyOnWrites; // number of shared pages copied on
+										// write
+	public static long numPagesReadAround; // number of pages read in
+											// alongside a faulting page
+	public static long numTlbHits; // number of translations found in the TLB
+	public static long numTlbMisses; // number of translations not in the TLB
+	public static long numTlbFlushes; // number of times the TLB was emptied
+	public static long numPacketsSent; // number of packets sent over the network
+	public static long numPacketsRecvd; // number of packets received over the
 										// network
 
 	/**
@@ -63,6 +74,123 @@ public class Statistics {
 		numDiskReads = numDiskWrites = 0;
 		numConsoleCharsRead = numConsoleCharsWritten = 0;
 		numPageFaults = numPacketsSent = numPacketsRecvd = 0;
+		numPageEvictions = numPageWritebacks = numCopyOnWrites = numPagesReadAround = 0;
+		numTlbHits = numTlbMisses = numTlbFlushes = 0;
+	}
+
+	/**
+	 * The statistics at one moment, or the change in them over an interval.
+	 * Taking one snapshot at the start of an interval and another at its end
+	 * gives, by since(), what happened during the interval alone.
+	 */
+	public static class Snapshot {
+		// The statistics of the same names
+		public final long totalTicks;
+		public final long idleTicks;
+		public final long systemTicks;
+		public final long userTicks;
+		public final long numDiskReads;
+		public final long numDiskWrites;
+		public final long numConsoleCharsRead;
+		public final long numConsoleCharsWritten;
+		public final long numPageFaults;
+		public final long numPageEvictions;
+		public final long numPageWritebacks;
+		public final long numCopyOnWrites;
+		public final long numPagesReadAround;
+		public final long numTlbHits;
+		public final long numTlbMisses;
+		public final long numTlbFlushes;
+		public final long numPacketsSent;
+		public final long numPacketsRecvd;
+
+		/**
+		 * Capture the current statistics.
+		 */
+		private Snapshot() {
+			totalTicks = Statistics.totalTicks;
+			idleTicks = Statistics.idleTicks;
+			systemTicks = Statistics.systemTicks;
+			userTicks = Statistics.userTicks;
+			numDiskReads = Statistics.numDiskReads;
+			numDiskWrites = Statistics.numDiskWrites;
+			numConsoleCharsRead = Statistics.numConsoleCharsRead;
+			numConsoleCharsWritten = Statistics.numConsoleCharsWritten;
+			numPageFaults = Statistics.numPageFaults;
+			numPageEvictions = Statistics.numPageEvictions;
+			numPageWritebacks = Statistics.numPageWritebacks;
+			numCopyOnWrites = Statistics.numCopyOnWrites;
+			numPagesReadAround = Statistics.numPagesReadAround;
+			numTlbHits = Statistics.numTlbHits;
+			numTlbMisses = Statistics.numTlbMisses;
+			numTlbFlushes = Statistics.numTlbFlushes;
+			numPacketsSent = Statistics.numPacketsSent;
+			numPacketsRecvd = Statistics.numPacketsRecvd;
+		}
+
+		/**
+		 * The difference between two snapshots.
+		 */
+		private Snapshot(Snapshot pLater, Snapshot pEarlier) {
+			totalTicks = pLater.totalTicks - pEarlier.totalTicks;
+			idleTicks = pLater.idleTicks - pEarlier.idleTicks;
+			systemTicks = pLater.systemTicks - pEarlier.systemTicks;
+			userTicks = pLater.userTicks - pEarlier.userTicks;
+			numDiskReads = pLater.numDiskReads - pEarlier.numDiskReads;
+			numDiskWrites = pLater.numDiskWrites - pEarlier.numDiskWrites;
+			numConsoleCharsRead = pLater.numConsoleCharsRead - pEarlier.numConsoleCharsRead;
+			numConsoleCharsWritten = pLater.numConsoleCharsWritten - pEarlier.numConsoleCharsWritten;
+			numPageFaults = pLater.numPageFaults - pEarlier.numPageFaults;
+			numPageEvictions = pLater.numPageEvictions - pEarlier.numPageEvictions;
+			numPageWritebacks = pLater.numPageWritebacks - pEarlier.numPageWritebacks;
+			numCopyOnWrites = pLater.numCopyOnWrites - pEarlier.numCopyOnWrites;
+			numPagesReadAround = pLater.numPagesReadAround - pEarlier.numPagesReadAround;
+			numTlbHits = pLater.numTlbHits - pEarlier.numTlbHits;
+			numTlbMisses = pLater.numTlbMisses - pEarlier.numTlbMisses;
+			numTlbFlushes = pLater.numTlbFlushes - pEarlier.numTlbFlushes;
+			numPacketsSent = pLater.numPacketsSent - pEarlier.numPacketsSent;
+			numPacketsRecvd = pLater.numPacketsRecvd - pEarlier.numPacketsRecvd;
+		}
+
+		/**
+		 * What happened between an earlier snapshot and this one.
+		 *
+		 * @param pEarlier
+		 *            the snapshot at the start of the interval.
+		 * @return the change in each statistic.
+		 */
+		public Snapshot since(Snapshot pEarlier) {
+			return new Snapshot(this, pEarlier);
+		}
+
+		/**
+		 * Print the statistics, in the same form as Statistics.Print().
+		 */
+		public void print() {
+			System.out.println("Ticks: total " + totalTicks + ", idle " + idleTicks + ", system " + systemTicks
+					+ ", user " + userTicks);
+
+			System.out.println("Disk I/O: reads " + numDiskReads + ", writes " + numDiskWrites);
+			System.out.println("Console I/O: reads " + numConsoleCharsRead + ", writes " + numConsoleCharsWritten);
+			System.out.println("Paging: faults " + numPageFaults + ", evictions " + numPageEvictions
+					+ ", writebacks " + numPageWritebacks + ", copy-on-write " + numCopyOnWrites + ", read-around "
+					+ numPagesReadAround);
+			if (MMU.mTlb != null) {
+				System.out.println(
+						"TLB: hits " + numTlbHits + ", misses " + numTlbMisses + ", flushes " + numTlbFlushes);
+			}
+
+			System.out.println("Network I/O: packets received " + numPacketsRecvd + ", sent " + numPacketsSent);
+		}
+	}
+
+	/**
+	 * Capture the statistics as they are now.
+	 *
+	 * @return the snapshot.
+	 */
+	public static Snapshot snapshot() {
+		return new Snapshot();
 	}
 
 	/**
@@ -70,14 +198,7 @@ public class Statistics {
 	 * shutdown.
 	 */
 	public static void Print() {
-		System.out.println("Ticks: total " + totalTicks + ", idle " + idleTicks + ", system " + systemTicks + ", user "
-				+ userTicks);
-
-		System.out.println("Disk I/O: reads " + numDiskReads + ", writes " + numDiskWrites);
-		System.out.println("Console I/O: reads " + numConsoleCharsRead + ", writes " + numConsoleCharsWritten);
-		System.out.println("Paging: faults " + numPageFaults);
-
-		System.out.println("Network I/O: packets received " + numPacketsRecvd + ", sent " + numPacketsSent);
+		snapshot().print();
 	}
 
 }
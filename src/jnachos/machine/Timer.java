@@ -39,6 +39,9 @@ public class Timer implements VoidFunctionPtr {
 	/** The random number generator. */
 	private Random mRandom;
 
+	/** The next timer interrupt, rescheduled each time it occurs. */
+	private PendingInterrupt mNext;
+
 	/**
 	 * Initialize a hardware timer device. Save the place to call on each
 	 * interrupt, and then arrange for the timer to start generating interrupts.
@@ -64,7 +67,7 @@ public class Timer implements VoidFunctionPtr {
 		mArg = pCallArg;
 
 		// schedule the first interrupt from the timer device
-		Interrupt.schedule(this, this, TimeOfNextInterrupt(), InterruptType.TimerInt);
+		mNext = Interrupt.schedule(this, this, TimeOfNextInterrupt(), InterruptType.TimerInt);
 	}
 
 	/**
@@ -83,7 +86,7 @@ public class Timer implements VoidFunctionPtr {
 	 */
 	public void TimerExpired() {
 		// schedule the next timer device interrupt
-		Interrupt.schedule(this, this, TimeOfNextInterrupt(), InterruptType.TimerInt);
+		Interrupt.reschedule(mNext, TimeOfNextInterrupt());
 
 		// invoke the Nachos interrupt handler for this device
 		mHandler.call(mArg);